@@ -0,0 +1,7 @@
+import org.lenskit.mooc.svd.MappedSVDModelProvider
+import org.lenskit.mooc.svd.ModelFile
+import org.lenskit.mooc.svd.SVDModel
+
+// Serve from a model file written by the exportModel task instead of training at startup
+bind SVDModel toProvider MappedSVDModelProvider
+set ModelFile to "build/svd-model.bin"
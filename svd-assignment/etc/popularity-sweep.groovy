@@ -0,0 +1,22 @@
+import org.lenskit.api.ItemRecommender
+import org.lenskit.api.ItemScorer
+import org.lenskit.bias.*
+import org.lenskit.mooc.svd.PopularityWeight
+import org.lenskit.mooc.svd.ScoringPopularityWeight
+import org.lenskit.mooc.svd.SVDItemRecommender
+import org.lenskit.mooc.svd.SVDItemScorer
+
+
+// sweep the popularity weight at score time; every algorithm trains with the same
+// parameters (and popularity weight 0), so they all share one trained model
+for (popWeight in (0..90).step(10)) {
+    algorithm("SVD") {
+        attributes["PopularityWeight"] = popWeight/100.0
+        attributes["Bias"] = "User-Item Bias"
+        bind ItemScorer to SVDItemScorer
+        bind ItemRecommender to SVDItemRecommender
+        set PopularityWeight to 0
+        set ScoringPopularityWeight to popWeight
+        bind BiasModel to UserItemBiasModel
+    }
+}
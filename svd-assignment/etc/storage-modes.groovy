@@ -0,0 +1,23 @@
+import org.lenskit.api.ItemRecommender
+import org.lenskit.api.ItemScorer
+import org.lenskit.bias.*
+import org.lenskit.mooc.svd.FactorStorage
+import org.lenskit.mooc.svd.PopularityWeight
+import org.lenskit.mooc.svd.RandomSeed
+import org.lenskit.mooc.svd.SVDItemRecommender
+import org.lenskit.mooc.svd.SVDItemScorer
+
+
+// compare the accuracy of the factor storage formats; a fixed seed gives every
+// format the same trained factors, so the differences come from storage alone
+for (storage in ["double", "float", "int8"]) {
+    algorithm("SVD-" + storage) {
+        attributes["Storage"] = storage
+        bind ItemScorer to SVDItemScorer
+        bind ItemRecommender to SVDItemRecommender
+        set FactorStorage to storage
+        set RandomSeed to 42
+        set PopularityWeight to 0
+        bind BiasModel to UserItemBiasModel
+    }
+}
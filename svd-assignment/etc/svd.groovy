@@ -1,9 +1,15 @@
+import org.lenskit.api.ItemRecommender
 import org.lenskit.api.ItemScorer
 import org.lenskit.mooc.svd.PopularityWeight
+import org.lenskit.mooc.svd.ResultCacheSize
+import org.lenskit.mooc.svd.SVDItemRecommender
 import org.lenskit.mooc.svd.SVDItemScorer
 import org.lenskit.bias.*
 
 // Set up item scorer
 bind ItemScorer to SVDItemScorer.class
+bind ItemRecommender to SVDItemRecommender.class
+// cache user vectors and top-N lists for returning users
+set ResultCacheSize to 10000
 set PopularityWeight to 25
 bind BiasModel to GlobalBiasModel
\ No newline at end of file
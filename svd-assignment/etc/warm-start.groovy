@@ -0,0 +1,6 @@
+import org.lenskit.mooc.svd.PriorModelFile
+import org.lenskit.mooc.svd.WarmStartEpochs
+
+// Seed training with the factors of the last exported model, and train only a few epochs
+set PriorModelFile to "build/svd-model.bin"
+set WarmStartEpochs to 5
@@ -0,0 +1,131 @@
+package org.lenskit.mooc.svd;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.bias.GlobalBiasModel;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.FrozenHashKeyIndex;
+import org.lenskit.util.keys.KeyIndex;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Data sets for the benchmarks: either synthetic ratings of a requested size, or a real data set
+ * loaded from a data source description (e.g. the bundled MovieLens {@code movielens.yml}).
+ */
+final class BenchmarkData {
+    /**
+     * The data set name that selects synthetic data.
+     */
+    static final String SYNTHETIC = "synthetic";
+
+    final KeyIndex users;
+    final KeyIndex items;
+    final BiasModel bias;
+    final SparseRatingMatrix ratings;
+
+    private BenchmarkData(KeyIndex users, KeyIndex items, BiasModel bias, SparseRatingMatrix ratings) {
+        this.users = users;
+        this.items = items;
+        this.bias = bias;
+        this.ratings = ratings;
+    }
+
+    /**
+     * Load a data set.
+     * @param dataset {@link #SYNTHETIC}, or the path of a data source description.
+     * @param size The number of ratings to generate, for synthetic data.
+     * @return The data set.
+     */
+    static BenchmarkData load(String dataset, int size) {
+        return SYNTHETIC.equals(dataset) ? synthetic(size, 42) : fromFile(dataset);
+    }
+
+    /**
+     * Generate synthetic ratings: one user per 100 ratings and one item per 50, with uniformly
+     * random cells holding normally distributed residuals.
+     */
+    static BenchmarkData synthetic(int size, long seed) {
+        Random random = new Random(seed);
+        int nusers = Math.max(1, size / 100);
+        int nitems = Math.max(1, size / 50);
+        SparseRatingMatrix.Builder builder = SparseRatingMatrix.newBuilder(nusers, nitems);
+        for (int k = 0; k < size; k++) {
+            builder.add(random.nextInt(nusers), random.nextInt(nitems), random.nextGaussian());
+        }
+        return new BenchmarkData(sequentialIndex(nusers), sequentialIndex(nitems),
+                                 new GlobalBiasModel(3.5), builder.build());
+    }
+
+    private static BenchmarkData fromFile(String file) {
+        DataAccessObject dao;
+        try {
+            dao = RatingCacheFile.load(Paths.get(file)).get();
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot load " + file, e);
+        }
+        double sum = 0;
+        int count = 0;
+        try (ObjectStream<Rating> ratings = dao.query(Rating.class).stream()) {
+            for (Rating r: ratings) {
+                sum += r.getValue();
+                count++;
+            }
+        }
+        BiasModel bias = new GlobalBiasModel(count > 0 ? sum / count : 0);
+        try (RatingIngest ingest = new RatingIngest(bias, 0, 0)) {
+            ingest.scan(dao);
+            return new BenchmarkData(ingest.getUserIndex(), ingest.getItemIndex(), bias, ingest.buildMatrix());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static KeyIndex sequentialIndex(int n) {
+        LongList ids = new LongArrayList(n);
+        for (int i = 0; i < n; i++) {
+            ids.add(i + 1);
+        }
+        return FrozenHashKeyIndex.create(ids);
+    }
+
+    /**
+     * Create a model over this data set's users and items with random factors.  Scoring cost does
+     * not depend on the factor values, so this stands in for a trained model.
+     * @param features The feature count.
+     * @return The model.
+     */
+    SVDModel randomModel(int features) {
+        Random random = new Random(7);
+        double[][] umat = new double[users.size()][features];
+        double[][] imat = new double[items.size()][features];
+        for (double[] row: umat) {
+            for (int f = 0; f < features; f++) {
+                row[f] = random.nextGaussian() * 0.1;
+            }
+        }
+        for (double[] row: imat) {
+            for (int f = 0; f < features; f++) {
+                row[f] = random.nextGaussian() * 0.1;
+            }
+        }
+        double[] popularity = new double[items.size()];
+        for (int i = 0; i < popularity.length; i++) {
+            popularity[i] = random.nextDouble() * 5;
+        }
+        double[] weights = new double[features];
+        Arrays.fill(weights, 1.0);
+        return new SVDModel(users, items, new Array2DRowRealMatrix(umat, false),
+                            new Array2DRowRealMatrix(imat, false), new ArrayRealVector(weights, false),
+                            popularity, 0.1);
+    }
+}
@@ -0,0 +1,70 @@
+package org.lenskit.mooc.svd;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to compute the intra-list similarity of one recommendation list, by list length, with the
+ * linear-time sum over unit vectors and with the pairwise reference.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ILSBenchmark {
+    private static final int LISTS = 64;
+
+    @Param({BenchmarkData.SYNTHETIC})
+    public String dataset;
+
+    /**
+     * The number of synthetic ratings (one item per 50 ratings); ignored for real data.
+     */
+    @Param({"1000000"})
+    public int ratings;
+
+    @Param({"50"})
+    public int features;
+
+    @Param({"10", "25", "50", "100"})
+    public int listSize;
+
+    private SVDModel model;
+    private UnitItemVectors vectors;
+    private LongList[] lists;
+    private int next;
+
+    @Setup
+    public void setup() {
+        BenchmarkData data = BenchmarkData.load(dataset, ratings);
+        model = data.randomModel(features);
+        vectors = UnitItemVectors.of(model);
+        LongList items = data.items.getKeyList();
+        Random random = new Random(13);
+        lists = new LongList[LISTS];
+        for (int l = 0; l < LISTS; l++) {
+            lists[l] = new LongArrayList(listSize);
+            for (int j = 0; j < listSize; j++) {
+                lists[l].add(items.getLong(random.nextInt(items.size())));
+            }
+        }
+    }
+
+    @Benchmark
+    public double intraListSimilarity() {
+        next = (next + 1) % LISTS;
+        return ILSMetric.intraListSimilarity(vectors, lists[next], true);
+    }
+
+    @Benchmark
+    public double pairwiseIntraListSimilarity() {
+        next = (next + 1) % LISTS;
+        return ILSMetric.pairwiseIntraListSimilarity(model, lists[next], true);
+    }
+}
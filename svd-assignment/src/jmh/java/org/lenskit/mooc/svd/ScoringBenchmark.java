@@ -0,0 +1,105 @@
+package org.lenskit.mooc.svd;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import org.lenskit.api.ResultList;
+import org.lenskit.api.ResultMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of scoring the whole catalogue and of top-N recommendation for a single user, and the
+ * throughput of scoring candidate batches for many users.
+ */
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScoringBenchmark {
+    private static final int BATCH_USERS = 1000;
+    private static final int BATCH_ITEMS = 100;
+
+    @Param({BenchmarkData.SYNTHETIC})
+    public String dataset;
+
+    /**
+     * The number of synthetic ratings (one item per 50 ratings); ignored for real data.
+     */
+    @Param({"1000000"})
+    public int ratings;
+
+    @Param({"50"})
+    public int features;
+
+    private SVDItemScorer scorer;
+    private SVDItemRecommender recommender;
+    private LongList users;
+    private LongList allItems;
+    private LongList[] batches;
+    private long[] ids;
+    private double[] scores;
+    private int next;
+
+    @Setup
+    public void setup() {
+        BenchmarkData data = BenchmarkData.load(dataset, ratings);
+        SVDModel model = data.randomModel(features);
+        SVDResultCache cache = SVDResultCache.disabled(model);
+        scorer = new SVDItemScorer(model, null, data.bias, cache,
+                                   new UserFoldIn(model, data.bias, 0.02, 0), -1);
+        recommender = new SVDItemRecommender(model, scorer, null, ItemFactorIndex.empty(), 0, cache, 0);
+        users = data.users.getKeyList();
+        allItems = data.items.getKeyList();
+
+        Random random = new Random(11);
+        batches = new LongList[BATCH_USERS];
+        for (int u = 0; u < BATCH_USERS; u++) {
+            batches[u] = new LongArrayList(BATCH_ITEMS);
+            for (int j = 0; j < BATCH_ITEMS; j++) {
+                batches[u].add(allItems.getLong(random.nextInt(allItems.size())));
+            }
+        }
+        ids = new long[allItems.size()];
+        scores = new double[allItems.size()];
+    }
+
+    private long nextUser() {
+        next = (next + 1) % users.size();
+        return users.getLong(next);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ResultMap scoreAll() {
+        return scorer.scoreWithDetails(nextUser(), allItems);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ResultList topN() {
+        LongSet exclude = LongSets.EMPTY_SET;
+        return recommender.recommendWithDetails(nextUser(), 10, null, exclude);
+    }
+
+    /**
+     * Score a batch of candidate items for each of many users; each operation is one user.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH_USERS)
+    public int batchScoring() {
+        int scored = 0;
+        for (int u = 0; u < BATCH_USERS; u++) {
+            long user = users.getLong(u % users.size());
+            scored += scorer.scoreBatch(user, batches[u], ids, scores);
+        }
+        return scored;
+    }
+}
@@ -0,0 +1,48 @@
+package org.lenskit.mooc.svd;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of one training epoch, by data size, feature count and engine.  Each invocation trains
+ * from fresh random factors for a single epoch, so the time includes initialization.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TrainingBenchmark {
+    @Param({BenchmarkData.SYNTHETIC})
+    public String dataset;
+
+    /**
+     * The number of synthetic ratings; ignored for real data.
+     */
+    @Param({"100000", "1000000"})
+    public int ratings;
+
+    @Param({"10", "50"})
+    public int features;
+
+    @Param({"SGD", "ALS"})
+    public String engine;
+
+    private SparseRatingMatrix matrix;
+    private TrainingConfig config;
+
+    @Setup
+    public void setup() {
+        matrix = BenchmarkData.load(dataset, ratings).ratings;
+        config = TrainingConfig.defaults().withMaxEpochs(1);
+    }
+
+    @Benchmark
+    public MySingularValueDecomposition epoch() {
+        return new MySingularValueDecomposition(matrix, features,
+                                                MySingularValueDecomposition.Engine.fromName(engine),
+                                                1, 42, config);
+    }
+}
@@ -0,0 +1,48 @@
+package org.lenskit.mooc.svd;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads the JVM's per-thread heap allocation counters, so training loops can log how much
+ * garbage they produce.
+ */
+final class AllocationCounter {
+    private static final com.sun.management.ThreadMXBean threadBean;
+
+    static {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean sunBean = null;
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && !sunBean.isThreadAllocatedMemoryEnabled()) {
+                sunBean.setThreadAllocatedMemoryEnabled(true);
+            }
+            if (!sunBean.isThreadAllocatedMemorySupported()) {
+                sunBean = null;
+            }
+        }
+        threadBean = sunBean;
+    }
+
+    private AllocationCounter() {}
+
+    /**
+     * Check whether this JVM can report allocated bytes.
+     * @return {@code true} if {@link #threadAllocatedBytes()} returns real values.
+     */
+    static boolean isSupported() {
+        return threadBean != null;
+    }
+
+    /**
+     * Get the number of bytes the current thread has allocated so far.
+     * @return The allocated byte count, or -1 if the JVM does not track it.
+     */
+    static long threadAllocatedBytes() {
+        if (threadBean == null) {
+            return -1;
+        }
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
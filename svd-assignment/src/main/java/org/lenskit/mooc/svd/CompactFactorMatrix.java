@@ -0,0 +1,67 @@
+package org.lenskit.mooc.svd;
+
+import org.apache.commons.math3.linear.AbstractRealMatrix;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import java.io.Serializable;
+
+/**
+ * Base class for read-only feature matrices stored more compactly than commons-math's
+ * double-precision matrices.  Subclasses store rows contiguously and compute dot products with
+ * a row directly from their storage, without copying it out.
+ */
+abstract class CompactFactorMatrix extends AbstractRealMatrix implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    protected final int rows;
+    protected final int columns;
+
+    CompactFactorMatrix(int nrows, int ncols) {
+        super(nrows, ncols);
+        rows = nrows;
+        columns = ncols;
+    }
+
+    @Override
+    public int getRowDimension() {
+        return rows;
+    }
+
+    @Override
+    public int getColumnDimension() {
+        return columns;
+    }
+
+    /**
+     * Compute the dot product of a row with a vector.
+     * @param row The row.
+     * @param vec The vector (length at least the column count).
+     * @return The dot product.
+     */
+    abstract double dotRow(int row, double[] vec);
+
+    @Override
+    public double[] getRow(int row) {
+        double[] data = new double[columns];
+        for (int c = 0; c < columns; c++) {
+            data[c] = getEntry(row, c);
+        }
+        return data;
+    }
+
+    @Override
+    public void setEntry(int row, int column, double value) {
+        throw new UnsupportedOperationException("compact factor matrices are read-only");
+    }
+
+    @Override
+    public RealMatrix createMatrix(int rowDimension, int columnDimension) {
+        return new Array2DRowRealMatrix(rowDimension, columnDimension);
+    }
+
+    @Override
+    public RealMatrix copy() {
+        return new Array2DRowRealMatrix(getData(), false);
+    }
+}
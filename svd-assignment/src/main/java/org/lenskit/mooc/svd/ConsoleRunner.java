@@ -1,7 +1,11 @@
 package org.lenskit.mooc.svd;
 
 import com.google.common.base.Throwables;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
 import org.lenskit.LenskitConfiguration;
 import org.lenskit.LenskitRecommender;
 import org.lenskit.LenskitRecommenderEngine;
@@ -11,33 +15,46 @@ import org.lenskit.api.ResultList;
 import org.lenskit.config.ConfigHelpers;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.dao.file.StaticDataSource;
-import org.lenskit.data.entities.CommonAttributes;
 import org.lenskit.data.entities.CommonTypes;
 import org.lenskit.data.entities.Entity;
 import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.io.ObjectStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
-import java.io.FileWriter;
 /**
  * Demonstration app for LensKit. This application builds an item-item CF model
  * from a CSV file, then generates recommendations for a user.
  *
  * Usage: java org.grouplens.lenskit.hello.HelloLenskit ratings.csv user
+ *
+ * With {@code --output FILE}, it instead recommends for every user (or the users listed) in a
+ * batch, spread over a pool of threads, and writes the lists to {@code FILE} as CSV rows of
+ * {@code user,rank,item,score}; the file is gzipped if its name ends in {@code .gz}.  Options:
+ *
+ * <dl>
+ * <dt>{@code --output FILE}</dt><dd>Write recommendations for all users to {@code FILE}.</dd>
+ * <dt>{@code --threads N}</dt><dd>The number of threads (default: one per processor).</dd>
+ * <dt>{@code --list-size N}</dt><dd>The number of items to recommend to each user (default
+ * 10).</dd>
+ * </dl>
  */
 public class ConsoleRunner implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(ConsoleRunner.class);
-    HashMap<Long, Integer> itemFreq = new HashMap<>();
-    private static final String FILE_HEADER = "MovieId,Popularity,PopularityWeight,RecFrequency";
-    private static final String NEW_LINE_SEPARATOR = "\n";
-    private static final String COMMA_DELIMITER = ",";
-    private final String freqFileName = "itemFreq_40.csv";
 
     public static void main(String[] args) {
         ConsoleRunner hello = new ConsoleRunner(args);
@@ -53,11 +70,30 @@ public class ConsoleRunner implements Runnable {
     private Path trainFile = Paths.get("data/movielens.yml");
     //private Path testFile = Paths.get("data/testFile.yml");
     private List<Long> users;
+    private Path outputFile;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private int listSize = 10;
+    /**
+     * The number of users a batch worker takes from the queue at a time.
+     */
+    private static final int BATCH_CHUNK = 256;
 
     public ConsoleRunner(String[] args) {
         users = new ArrayList<>(args.length);
-        for (String arg: args) {
-            users.add(Long.parseLong(arg));
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "--output":
+                outputFile = Paths.get(args[++i]);
+                break;
+            case "--threads":
+                threadCount = Integer.parseInt(args[++i]);
+                break;
+            case "--list-size":
+                listSize = Integer.parseInt(args[++i]);
+                break;
+            default:
+                users.add(Long.parseLong(args[i]));
+            }
         }
     }
 
@@ -68,7 +104,7 @@ public class ConsoleRunner implements Runnable {
         DataAccessObject trainDao;
         //DataAccessObject testDao;
         try {
-            StaticDataSource trainData = StaticDataSource.load(trainFile);
+            StaticDataSource trainData = RatingCacheFile.load(trainFile);
             //StaticDataSource testData = StaticDataSource.load(testFile);
             // get the data from the DAO
             trainDao = trainData.get();
@@ -99,91 +135,180 @@ public class ConsoleRunner implements Runnable {
 
         logger.info("built recommender engine");
 
+        // Each user's rated items are excluded from their recommendations
+        Long2ObjectMap<LongSet> ratedItems = groupRatedItems(trainDao);
+        if (outputFile != null) {
+            try {
+                recommendAll(engine, trainDao, ratedItems);
+            } catch (IOException e) {
+                logger.error("cannot write recommendations", e);
+                throw Throwables.propagate(e);
+            }
+            return;
+        }
+
         // Finally, get the recommender and use it.
         try (LenskitRecommender rec = engine.createRecommender(trainDao)) {
             logger.info("obtained recommender from engine");
             // we want to recommend items
             ItemRecommender irec = rec.getItemRecommender();
             assert irec != null; // not null because we configured one
-            // for users
+            // for the users asked for, or else the first user
             //List<Rating> testRating = testDao.query(Rating.class).get();
-            List<Rating> ratings = trainDao.query(Rating.class).get();
-
-            LongSet allUsers = trainDao.query(Rating.class).valueSet(CommonAttributes.USER_ID);
+            Collection<Long> targets = users;
+            if (targets.isEmpty()) {
+                targets = ratedItems.keySet().isEmpty()
+                        ? Collections.<Long>emptyList()
+                        : Collections.singletonList(ratedItems.keySet().iterator().nextLong());
+            }
 
-            for(Long testUser :allUsers){
-                LongSet userRatedItems = trainDao.query(Rating.class).withAttribute(CommonAttributes.USER_ID, testUser).valueSet(CommonAttributes.ITEM_ID);
+            for(Long testUser : targets){
+                LongSet userRatedItems = getRatedItems(ratedItems, testUser);
                 System.out.format("Recommendations for user %d:\n", testUser);
-                ResultList recs = irec.recommendWithDetails(testUser, 10, null, userRatedItems);
+                ResultList recs = irec.recommendWithDetails(testUser, listSize, null, userRatedItems);
                 displayRecommendations(recs);
-                //updateFrequency(recs);
                 System.out.println("-------------------------------------------");
-                break;
             }
         }
-        System.out.println("Total Items ever recommended : "+itemFreq.size());
-//        writeHeader();
-//        writeFrequency();
     }
-    private void displayRecommendations (ResultList recs){
-        for(Result res : recs){
-            System.out.println("Movie Id : "+res.getId() + "\tScore : "+res.getScore());
+
+    /**
+     * Group the rated items of every user, in one pass over the ratings.
+     * @param dao The data access object.
+     * @return The items each user has rated.
+     */
+    static Long2ObjectMap<LongSet> groupRatedItems(DataAccessObject dao) {
+        Long2ObjectMap<LongSet> items = new Long2ObjectOpenHashMap<>();
+        try (ObjectStream<Rating> ratings = dao.query(Rating.class).stream()) {
+            for (Rating r: ratings) {
+                LongSet set = items.get(r.getUserId());
+                if (set == null) {
+                    set = new LongOpenHashSet();
+                    items.put(r.getUserId(), set);
+                }
+                set.add(r.getItemId());
+            }
         }
+        return items;
     }
 
-    private void writeHeader(){
-        FileWriter writer = null;
-        try{
-            writer = new FileWriter(freqFileName, true);
-            writer.append(FILE_HEADER);
-            writer.append(NEW_LINE_SEPARATOR);
-        }catch (Exception ex){
-            System.out.println("Error while writing header into csv file");
-            ex.printStackTrace();
-        }finally {
-            try {
-                writer.flush();
-                writer.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+    private static LongSet getRatedItems(Long2ObjectMap<LongSet> ratedItems, long user) {
+        LongSet items = ratedItems.get(user);
+        return items != null ? items : LongSets.EMPTY_SET;
+    }
+
+    /**
+     * Recommend for every user and write the lists to the output file.  Each worker thread has
+     * its own recommender from the engine, so all of them share the engine's read-only model;
+     * workers take users from a shared queue in chunks, and write each chunk's lines at once.
+     * Lines are in no particular user order.  The lists are written under a temporary name and
+     * moved into place once every user is done, so a failed or interrupted run leaves any
+     * previous output file as it was.
+     * @param engine The recommender engine.
+     * @param dao The data access object.
+     * @param ratedItems The items each user has rated.
+     * @throws IOException if there is an error writing the output, or the run is interrupted.
+     */
+    private void recommendAll(LenskitRecommenderEngine engine, DataAccessObject dao,
+                              Long2ObjectMap<LongSet> ratedItems) throws IOException {
+        final long[] targets;
+        if (users.isEmpty()) {
+            targets = ratedItems.keySet().toLongArray();
+            Arrays.sort(targets);
+        } else {
+            targets = new long[users.size()];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = users.get(i);
             }
         }
-    }
+        final int nthreads = Math.max(1, threadCount);
+        logger.info("recommending {} items for {} users with {} threads to {}",
+                    listSize, targets.length, nthreads, outputFile);
 
-    private void writeFrequency(){
-        System.out.println("Dumping item frequencies into CSV ...");
-        FileWriter writer = null;
+        long start = System.nanoTime();
+        AtomicInteger next = new AtomicInteger();
+        Path file = outputFile.toAbsolutePath();
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
         try {
-            writer = new FileWriter(freqFileName, true);
-            for(Map.Entry<Long, Integer> itemEntry : itemFreq.entrySet()){
-                Long item = itemEntry.getKey();
-                Integer count = itemEntry.getValue();
-
-                writer.append(String.valueOf(item));
-                writer.append(COMMA_DELIMITER);
-                writer.append(String.valueOf(count));
-                writer.append(NEW_LINE_SEPARATOR);
+            try (Writer out = openOutput(temp, file.getFileName().toString().endsWith(".gz"))) {
+                out.write("user,rank,item,score\n");
+                ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+                try {
+                    List<Future<?>> workers = new ArrayList<>(nthreads);
+                    for (int t = 0; t < nthreads; t++) {
+                        workers.add(pool.submit(() -> {
+                            try (LenskitRecommender rec = engine.createRecommender(dao)) {
+                                ItemRecommender irec = rec.getItemRecommender();
+                                StringBuilder lines = new StringBuilder();
+                                int from;
+                                while ((from = next.getAndAdd(BATCH_CHUNK)) < targets.length) {
+                                    int to = Math.min(from + BATCH_CHUNK, targets.length);
+                                    for (int i = from; i < to; i++) {
+                                        // stop promptly once the run is cancelled
+                                        if (Thread.interrupted()) {
+                                            throw new InterruptedException();
+                                        }
+                                        long user = targets[i];
+                                        ResultList recs = irec.recommendWithDetails(user, listSize, null,
+                                                                                    getRatedItems(ratedItems, user));
+                                        int rank = 0;
+                                        for (Result res: recs) {
+                                            lines.append(user).append(',')
+                                                 .append(++rank).append(',')
+                                                 .append(res.getId()).append(',')
+                                                 .append(res.getScore()).append('\n');
+                                        }
+                                    }
+                                    synchronized (out) {
+                                        out.append(lines);
+                                    }
+                                    lines.setLength(0);
+                                }
+                            }
+                            return null;
+                        }));
+                    }
+                    for (Future<?> worker: workers) {
+                        worker.get();
+                    }
+                } finally {
+                    // interrupts the other workers if one failed or this thread was interrupted
+                    pool.shutdownNow();
+                }
             }
-        } catch (Exception e) {
-            System.out.println("Error in CsvFileWriter !!!");
-            e.printStackTrace();
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted recommending for users");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
         } finally {
-            try {
-                writer.flush();
-                writer.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            Files.deleteIfExists(temp);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1.0e9;
+        logger.info("recommended for {} users in {} s ({} users/sec)", targets.length,
+                    String.format("%.1f", seconds), String.format("%.0f", targets.length / seconds));
+    }
+
+    /**
+     * Open a batch output file.
+     * @param file The file.
+     * @param gzip Whether to gzip the output.
+     */
+    private static Writer openOutput(Path file, boolean gzip) throws IOException {
+        OutputStream stream = Files.newOutputStream(file);
+        if (gzip) {
+            stream = new GZIPOutputStream(stream, 1 << 16);
+        } else {
+            stream = new BufferedOutputStream(stream, 1 << 16);
         }
-        System.out.println("Dumping done !");
+        return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 1 << 16);
     }
-    private void updateFrequency(ResultList recs){
+    private void displayRecommendations (ResultList recs){
         for(Result res : recs){
-            Integer count = itemFreq.get(res.getId());
-            if(count == null)
-                count = 0;
-            itemFreq.put(res.getId(), count + 1);
+            System.out.println("Movie Id : "+res.getId() + "\tScore : "+res.getScore());
         }
     }
 }
-
@@ -0,0 +1,20 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling how many epochs training continues without improving the monitored
+ * RMSE before it stops early.  0 (the default) disables early stopping.
+ */
+@Documented
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(0)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface EarlyStoppingPatience {
+}
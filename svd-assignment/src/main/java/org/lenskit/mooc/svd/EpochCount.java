@@ -0,0 +1,20 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter capping the number of training epochs.  ALS runs at most 10 epochs whatever the
+ * cap.
+ */
+@Documented
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(45)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface EpochCount {
+}
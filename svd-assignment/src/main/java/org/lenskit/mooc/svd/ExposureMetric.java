@@ -0,0 +1,224 @@
+package org.lenskit.mooc.svd;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.api.Recommender;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.eval.traintest.AlgorithmInstance;
+import org.lenskit.eval.traintest.DataSet;
+import org.lenskit.eval.traintest.TestUser;
+import org.lenskit.eval.traintest.metrics.MetricColumn;
+import org.lenskit.eval.traintest.metrics.MetricResult;
+import org.lenskit.eval.traintest.metrics.TypedMetricResult;
+import org.lenskit.eval.traintest.recommend.ListOnlyTopNMetric;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.FrozenHashKeyIndex;
+import org.lenskit.util.keys.KeyIndex;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how recommendations spread exposure over the catalogue, to show the effect of the
+ * popularity weight:
+ *
+ * <dl>
+ * <dt>{@code Coverage}</dt>
+ * <dd>The fraction of the data set's items recommended to at least one user.</dd>
+ * <dt>{@code ExposureGini}</dt>
+ * <dd>The Gini index of the number of times each item is recommended, from 0 (every item
+ * recommended equally often) to nearly 1 (all recommendations go to one item).</dd>
+ * <dt>{@code RecPopularity}</dt>
+ * <dd>The mean normalized popularity ({@link SVDModel#getItemPopularity(long)}) of the
+ * recommended items; empty for algorithms without an SVD model.</dd>
+ * <dt>{@code LongTailShare}</dt>
+ * <dd>The fraction of recommended items outside the short head: the most-rated training items
+ * that together have a fifth of the training ratings.</dd>
+ * </dl>
+ *
+ * The popularity and long-tail share are also reported per user, and averaged over users.  The
+ * metric keeps one recommendation count per item, updated without locks, so its memory does not
+ * grow with the number of users.
+ */
+public class ExposureMetric extends ListOnlyTopNMetric<ExposureMetric.Context> {
+    /**
+     * The share of training ratings that the short head accounts for.
+     */
+    static final double SHORT_HEAD_SHARE = 0.2;
+
+    @Inject
+    public ExposureMetric() {
+        super(UserResult.class, AggregateResult.class);
+    }
+
+    @Nullable
+    @Override
+    public Context createContext(AlgorithmInstance algorithm, DataSet dataSet, Recommender recommender) {
+        KeyIndex items = FrozenHashKeyIndex.create(dataSet.getAllItems());
+        SVDModel model = ((LenskitRecommender) recommender).get(SVDModel.class);
+        return new Context(items, shortHead(items, dataSet.getTrainingData().get()), model);
+    }
+
+    /**
+     * Find the short head of a data set.
+     * @param items The item index.
+     * @param dao The training data.
+     * @return Whether each item (by row) is in the short head.
+     */
+    static boolean[] shortHead(KeyIndex items, DataAccessObject dao) {
+        final int n = items.size();
+        int[] counts = new int[n];
+        long total = 0;
+        try (ObjectStream<Rating> ratings = dao.query(Rating.class).stream()) {
+            for (Rating r: ratings) {
+                int row = items.tryGetIndex(r.getItemId());
+                if (row >= 0) {
+                    counts[row]++;
+                    total++;
+                }
+            }
+        }
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        IntArrays.quickSort(order, new AbstractIntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return Integer.compare(counts[b], counts[a]);
+            }
+        });
+        boolean[] head = new boolean[n];
+        long covered = 0;
+        for (int j = 0; j < n && covered < SHORT_HEAD_SHARE * total; j++) {
+            head[order[j]] = true;
+            covered += counts[order[j]];
+        }
+        return head;
+    }
+
+    @Nonnull
+    @Override
+    public MetricResult measureUser(TestUser user, int targetLength, LongList recommendations, Context context) {
+        int n = recommendations.size();
+        if (n == 0) {
+            return MetricResult.empty();
+        }
+        context.exposure.add(recommendations);
+        int tail = 0;
+        double popularity = 0;
+        for (int j = 0; j < n; j++) {
+            long item = recommendations.getLong(j);
+            int row = context.items.tryGetIndex(item);
+            if (row < 0 || !context.head[row]) {
+                tail++;
+            }
+            if (context.model != null) {
+                popularity += context.model.getItemPopularity(item);
+            }
+        }
+        UserResult result = new UserResult(context.model != null ? popularity / n : null,
+                                           (double) tail / n);
+        context.addUser(result);
+        return result;
+    }
+
+    @Nonnull
+    @Override
+    public MetricResult getAggregateMeasurements(Context context) {
+        return new AggregateResult(context);
+    }
+
+    /**
+     * Compute the Gini index of a set of counts.
+     * @param counts The counts; sorted in place.
+     * @return The Gini index, or 0 if all counts are 0.
+     */
+    static double gini(int[] counts) {
+        IntArrays.quickSort(counts);
+        final int n = counts.length;
+        double weighted = 0;
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            weighted += (2.0 * (i + 1) - n - 1) * counts[i];
+            total += counts[i];
+        }
+        return total > 0 ? weighted / (n * total) : 0;
+    }
+
+    public static class UserResult extends TypedMetricResult {
+        @MetricColumn("RecPopularity")
+        public final Double popularity;
+
+        @MetricColumn("LongTailShare")
+        public final double longTailShare;
+
+        public UserResult(@Nullable Double popularity, double longTailShare) {
+            this.popularity = popularity;
+            this.longTailShare = longTailShare;
+        }
+    }
+
+    public static class AggregateResult extends TypedMetricResult {
+        @MetricColumn("Coverage")
+        public final double coverage;
+
+        @MetricColumn("ExposureGini")
+        public final double gini;
+
+        @MetricColumn("RecPopularity")
+        public final Double popularity;
+
+        @MetricColumn("LongTailShare")
+        public final double longTailShare;
+
+        public AggregateResult(Context context) {
+            final int n = context.items.size();
+            int[] counts = new int[n];
+            int recommended = 0;
+            for (int i = 0; i < n; i++) {
+                counts[i] = context.exposure.getCount(i);
+                if (counts[i] > 0) {
+                    recommended++;
+                }
+            }
+            coverage = n > 0 ? (double) recommended / n : 0;
+            gini = gini(counts);
+            long users = context.userCount.sum();
+            popularity = context.model != null && users > 0 ? context.popularitySum.sum() / users : null;
+            longTailShare = users > 0 ? context.longTailSum.sum() / users : 0;
+        }
+    }
+
+    public static class Context {
+        private final KeyIndex items;
+        private final boolean[] head;
+        @Nullable
+        private final SVDModel model;
+        private final ItemCounter exposure;
+        private final DoubleAdder popularitySum = new DoubleAdder();
+        private final DoubleAdder longTailSum = new DoubleAdder();
+        private final LongAdder userCount = new LongAdder();
+
+        Context(KeyIndex items, boolean[] head, @Nullable SVDModel model) {
+            this.items = items;
+            this.head = head;
+            this.model = model;
+            exposure = new ItemCounter(items);
+        }
+
+        void addUser(UserResult ur) {
+            if (ur.popularity != null) {
+                popularitySum.add(ur.popularity);
+            }
+            longTailSum.add(ur.longTailShare);
+            userCount.increment();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultDouble;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the regularization term applied to the user and item factors, in
+ * training and when folding in new users.
+ */
+@Documented
+@Qualifier
+@Parameter(Double.class)
+@DefaultDouble(0.02)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface FactorRegularization {
+}
@@ -0,0 +1,82 @@
+package org.lenskit.mooc.svd;
+
+import org.lenskit.util.keys.KeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+
+/**
+ * Initial factors for warm-starting training from a previous model.  Users and items that the
+ * previous model knows start from their old factors; the rest keep their random initialization.
+ *
+ * User rows are seeded with the old weighted user vectors, so a model trained by
+ * {@link MySingularValueDecomposition.Engine#SVD} (whose feature weights are not 1) seeds the
+ * iterative engines with the same predictions it made.
+ */
+class FactorSeed {
+    private static final Logger logger = LoggerFactory.getLogger(FactorSeed.class);
+
+    private final SVDModel prior;
+    private final KeyIndex userIndex;
+    private final KeyIndex itemIndex;
+
+    private FactorSeed(SVDModel prior, KeyIndex users, KeyIndex items) {
+        this.prior = prior;
+        userIndex = users;
+        itemIndex = items;
+    }
+
+    /**
+     * Create a seed from a previous model.
+     * @param prior The previous model.
+     * @param users The user index of the model being trained.
+     * @param items The item index of the model being trained.
+     * @param featureCount The feature count of the model being trained.
+     * @return The seed, or {@code null} if the previous model has a different feature count and
+     * cannot seed this one.
+     */
+    @Nullable
+    static FactorSeed fromModel(SVDModel prior, KeyIndex users, KeyIndex items, int featureCount) {
+        if (prior.getFeatureCount() != featureCount) {
+            logger.warn("prior model has {} features, not {}; training from scratch",
+                        prior.getFeatureCount(), featureCount);
+            return null;
+        }
+        return new FactorSeed(prior, users, items);
+    }
+
+    /**
+     * Copy the previous model's user factors into a flat, row-major factor array.
+     * @param features The user factors, indexed by the user index of the model being trained.
+     * @return The number of users seeded.
+     */
+    int seedUsers(double[] features) {
+        final int k = prior.getFeatureCount();
+        double[] row = new double[k];
+        int seeded = 0;
+        for (int u = 0; u < userIndex.size(); u++) {
+            if (prior.getWeightedUserFeatures(userIndex.getKey(u), row)) {
+                System.arraycopy(row, 0, features, u * k, k);
+                seeded++;
+            }
+        }
+        return seeded;
+    }
+
+    /**
+     * Copy the previous model's item factors into a flat, row-major factor array.
+     * @param features The item factors, indexed by the item index of the model being trained.
+     * @return The number of items seeded.
+     */
+    int seedItems(double[] features) {
+        final int k = prior.getFeatureCount();
+        int seeded = 0;
+        for (int i = 0; i < itemIndex.size(); i++) {
+            if (prior.getItemFeatures(itemIndex.getKey(i), features, i * k)) {
+                seeded++;
+            }
+        }
+        return seeded;
+    }
+}
@@ -0,0 +1,20 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultString;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter selecting how the SVD model stores its feature matrices: {@code double},
+ * {@code float} or {@code int8}.  See {@link SVDModel.Storage}.
+ */
+@Documented
+@Qualifier
+@Parameter(String.class)
+@DefaultString("double")
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface FactorStorage {
+}
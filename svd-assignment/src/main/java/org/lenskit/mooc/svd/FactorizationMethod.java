@@ -0,0 +1,22 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultString;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter selecting the engine used to train the factorization: {@code sgd} (serial, or
+ * Hogwild! with several {@link TrainingThreads}), {@code dsgd} (stratified block SGD, which
+ * is reproducible for a fixed {@link RandomSeed}), {@code als} (alternating least squares) or
+ * {@code svd} (randomized truncated SVD of the residual matrix).
+ */
+@Documented
+@Qualifier
+@Parameter(String.class)
+@DefaultString("sgd")
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface FactorizationMethod {
+}
@@ -0,0 +1,57 @@
+package org.lenskit.mooc.svd;
+
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Read-only feature matrix stored in single precision, row-major in one array.  Half the size
+ * of a double-precision matrix, and free of the per-row array headers of
+ * {@link org.apache.commons.math3.linear.Array2DRowRealMatrix}.
+ */
+class FloatFactorMatrix extends CompactFactorMatrix {
+    private static final long serialVersionUID = 1L;
+
+    private final float[] data;
+
+    /**
+     * Wrap an array as a matrix.
+     * @param data The entries, row-major ({@code nrows * ncols} floats).
+     * @param nrows The number of rows.
+     * @param ncols The number of columns.
+     */
+    FloatFactorMatrix(float[] data, int nrows, int ncols) {
+        super(nrows, ncols);
+        this.data = data;
+    }
+
+    /**
+     * Convert a matrix to single precision.
+     * @param matrix The matrix to convert.
+     * @return The single-precision copy.
+     */
+    static FloatFactorMatrix of(RealMatrix matrix) {
+        final int nrows = matrix.getRowDimension();
+        final int ncols = matrix.getColumnDimension();
+        float[] data = new float[nrows * ncols];
+        for (int r = 0; r < nrows; r++) {
+            for (int c = 0; c < ncols; c++) {
+                data[r * ncols + c] = (float) matrix.getEntry(r, c);
+            }
+        }
+        return new FloatFactorMatrix(data, nrows, ncols);
+    }
+
+    @Override
+    public double getEntry(int row, int column) {
+        return data[row * columns + column];
+    }
+
+    @Override
+    double dotRow(int row, double[] vec) {
+        int base = row * columns;
+        double dot = 0;
+        for (int c = 0; c < columns; c++) {
+            dot += data[base + c] * vec[c];
+        }
+        return dot;
+    }
+}
@@ -0,0 +1,20 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the maximum number of users whose folded-in vectors are kept.  An evicted
+ * user falls back to their trained vector, or is folded in again if the model has none.
+ */
+@Documented
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(100000)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface FoldInCapacity {
+}
@@ -2,9 +2,7 @@ package org.lenskit.mooc.svd;
 
 import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.longs.LongSet;
-import org.apache.commons.math3.linear.RealVector;
 import org.codehaus.groovy.runtime.powerassert.SourceText;
-import org.grouplens.lenskit.util.statistics.MeanAccumulator;
 import org.lenskit.LenskitRecommender;
 import org.lenskit.api.Recommender;
 import org.lenskit.eval.traintest.AlgorithmInstance;
@@ -17,133 +15,119 @@ import org.lenskit.eval.traintest.recommend.ListOnlyTopNMetric;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
-import java.io.IOException;
-import java.util.HashMap;
-import java.io.FileWriter;
-import java.util.Map;
 import java.util.Scanner;
-
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the intra-list similarity (ILS) of recommendation lists: half the sum of the cosine
+ * similarities of the items' feature vectors over all ordered pairs of list positions.  By
+ * default the pairs include each position with itself, as the metric always has; use
+ * {@link ExcludingSelfPairs} to count only distinct positions.
+ *
+ * The evaluator measures users from many threads at once, so the mean is accumulated in
+ * lock-free striped adders.  {@link ExposureMetric} reports how often items are recommended.
+ */
 public class ILSMetric extends ListOnlyTopNMetric<ILSMetric.Context> {
 
 //    private HashMap<Double, SVDModel> modelMap;
-    private HashMap<Double, HashMap<Long, Integer>> popWeightToItemRecFreq;
-    private final String freqFileName = "itemRecFrequency.csv";
-    private static final String FILE_HEADER = "MovieId,Popularity,PopularityWeight,RecFrequency";
-    private static final String NEW_LINE_SEPARATOR = "\n";
-    private static final String COMMA_DELIMITER = ",";
+    private final boolean selfPairs;
 
 //    private SVDModel model = null;
     @Inject
     public ILSMetric() {
+        this(true);
+    }
+
+    /**
+     * Create an ILS metric.
+     * @param selfPairs Whether to include the pair of each list position with itself.
+     */
+    public ILSMetric(boolean selfPairs) {
         super(ILSMetric.UserResult.class, ILSMetric.AggregateResult.class);
-//        itemRecFrequency = new HashMap<>();
-        popWeightToItemRecFreq = new HashMap<>();
-//        FileWriter writer = null;
-//        try{
-//            writer = new FileWriter(freqFileName, true);
-//            writer.append(FILE_HEADER);
-//            writer.append(NEW_LINE_SEPARATOR);
-//        }catch (Exception ex){
-//            System.out.println("Error while writing header into csv file");
-//            ex.printStackTrace();
-//        }finally {
-//            try {
-//                writer.flush();
-//                writer.close();
-//            } catch (IOException e) {
-//                e.printStackTrace();
-//            }
-//        }
+        this.selfPairs = selfPairs;
     }
 
     @Nullable
     @Override
     public Context createContext(AlgorithmInstance algorithm, DataSet dataSet, Recommender recommender) {
-        return new Context(dataSet.getAllItems(), (LenskitRecommender) recommender);
+        LenskitRecommender lkrec = (LenskitRecommender) recommender;
+        SVDModel model = lkrec.get(SVDModel.class);
+        // normalize the item vectors once for the whole run, not once per pair
+        return new Context(dataSet.getAllItems(), lkrec,
+                           model == null ? null : UnitItemVectors.of(model));
     }
 
     @Nonnull
     @Override
-    synchronized public MetricResult getAggregateMeasurements(ILSMetric.Context context) {
-//        SVDModel model = ((SVDItemScorer)context.recommender.getItemScorer()).getModel();
-//        SVDModel model = context.recommender.get(SVDModel.class);
-//        writeItemRecFrequency(model);
-//        Double keyPopWeight = model.getPopularityWeight();
-//        System.out.println("Total Items : "+popWeightToItemRecFreq.get(keyPopWeight).size() + "for pop weight : "+keyPopWeight);
-//        System.out.println("Removing item recommendation hashmap for pop weight : "+keyPopWeight);
-//        popWeightToItemRecFreq.remove(keyPopWeight);
+    public MetricResult getAggregateMeasurements(ILSMetric.Context context) {
         return new ILSMetric.AggregateResult(context);
     }
 
     @Nonnull
     @Override
     public MetricResult measureUser(TestUser user, int targetLength, LongList recommendations, Context context) {
-        SVDModel model = context.recommender.get(SVDModel.class);
-//        System.out.println("measureUser :: pop weight : "+model.getPopularityWeight());
-        Double cosine = 0.0;
-        for(Long item1 : recommendations){
-            for(Long item2 : recommendations){
-                RealVector item1Vec = model.getItemVector(item1);
-                RealVector item2Vec = model.getItemVector(item2);
-                cosine += calculateCosineSimilarity(item1Vec, item2Vec);
-            }
-
-//            updateRecFrequency(item1, model);
+        if (context.vectors == null) {
+            return MetricResult.empty();
         }
-        cosine/=2;
-        ILSMetric.UserResult result = new ILSMetric.UserResult(cosine);
+//        System.out.println("measureUser :: pop weight : "+model.getPopularityWeight());
+        ILSMetric.UserResult result = new ILSMetric.UserResult(intraListSimilarity(context.vectors, recommendations, selfPairs));
         context.addUser(result);
         return result;
     }
 
-    synchronized private void updateRecFrequency(Long item, SVDModel model){
-        Double keyPopWeight = model.getPopularityWeight();
-        HashMap<Long, Integer> itemRecFreq = popWeightToItemRecFreq.get(keyPopWeight);
-        if(itemRecFreq == null)
-            itemRecFreq = new HashMap<>();
-
-        Integer count = itemRecFreq.get(item);
-        if(count == null)
-            count = 0;
-
-        itemRecFreq.put(item, count + 1);
-        popWeightToItemRecFreq.put(keyPopWeight, itemRecFreq);
+    /**
+     * Compute the intra-list similarity of a list: half the sum of the cosine similarities of
+     * the item vectors over all ordered pairs of items.  This takes time linear in the list
+     * length.
+     * @param vectors The model's unit item vectors.
+     * @param items The list.
+     * @param selfPairs Whether to include the pair of each position with itself.
+     * @return The intra-list similarity.
+     */
+    static double intraListSimilarity(UnitItemVectors vectors, LongList items, boolean selfPairs){
+        return vectors.cosineSum(items, selfPairs) / 2;
     }
 
-    synchronized private void writeItemRecFrequency(SVDModel model){
-        Double keyPopWeight = model.getPopularityWeight();
-        if(popWeightToItemRecFreq == null || popWeightToItemRecFreq.get(keyPopWeight) == null)
-            return;
-        System.out.println("Dumping into CSV file for pop weight : "+model.getPopularityWeight() + " ...");
-        FileWriter writer = null;
-        try {
-            writer = new FileWriter(freqFileName, true);
-            for(Map.Entry<Long, Integer> itemFreq : popWeightToItemRecFreq.get(keyPopWeight).entrySet()){
-                Long item = itemFreq.getKey();
-                Integer count = itemFreq.getValue();
-                Double pop = model.getItemPopularity(item);
-
-                writer.append(String.valueOf(item));
-                writer.append(COMMA_DELIMITER);
-                writer.append(String.valueOf(pop));
-                writer.append(COMMA_DELIMITER);
-                writer.append(String.valueOf(keyPopWeight));
-                writer.append(COMMA_DELIMITER);
-                writer.append(String.valueOf(count));
-                writer.append(NEW_LINE_SEPARATOR);
-            }
-        } catch (Exception e) {
-            System.out.println("Error in CsvFileWriter !!!");
-            e.printStackTrace();
-        } finally {
-            try {
-                writer.flush();
-                writer.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * Compute the intra-list similarity of a list by comparing every pair of items.  This is
+     * the reference for {@link #intraListSimilarity(UnitItemVectors, LongList, boolean)}, and
+     * takes time quadratic in the list length.
+     * @param model The model providing the item vectors.
+     * @param items The list.
+     * @param selfPairs Whether to include the pair of each position with itself.
+     * @return The intra-list similarity.
+     */
+    static double pairwiseIntraListSimilarity(SVDModel model, LongList items, boolean selfPairs){
+        // copy the items' rows once, then compare them pairwise in place
+        final int k = model.getFeatureCount();
+        final int n = items.size();
+        double[] rows = new double[n * k];
+        boolean[] known = new boolean[n];
+        for(int i = 0; i < n; i++){
+            known[i] = model.getItemFeatures(items.getLong(i), rows, i * k);
+        }
+        FactorKernels kernels = FactorKernels.get();
+        double cosine = 0.0;
+        for(int i = 0; i < n; i++){
+            for(int j = 0; j < n; j++){
+                // unknown items have no vector, and count as dissimilar
+                if(known[i] && known[j] && (selfPairs || i != j)){
+                    cosine += kernels.cosine(rows, i * k, rows, j * k, k);
+                }
             }
         }
-        System.out.println("Dumped into CSV file for pop weight : "+model.getPopularityWeight());
+        return cosine / 2;
+    }
+
+    /**
+     * The ILS metric over distinct list positions, for configurations that name the metric by
+     * class.
+     */
+    public static class ExcludingSelfPairs extends ILSMetric {
+        public ExcludingSelfPairs() {
+            super(false);
+        }
     }
 
     public static class UserResult extends TypedMetricResult {
@@ -164,33 +148,36 @@ public class ILSMetric extends ListOnlyTopNMetric<ILSMetric.Context> {
         public final Double ils;
 
         public AggregateResult(ILSMetric.Context accum) {
-            this.ils = accum.allMean.getMean();
+            this.ils = accum.getMean();
         }
     }
 
     public static class Context {
         private final LongSet universe;
-        private final MeanAccumulator allMean = new MeanAccumulator();
+        private final DoubleAdder ilsSum = new DoubleAdder();
+        private final LongAdder userCount = new LongAdder();
         private final LenskitRecommender recommender;
+        @Nullable
+        private final UnitItemVectors vectors;
 
-        Context(LongSet universe, LenskitRecommender recommender) {
+        Context(LongSet universe, LenskitRecommender recommender, @Nullable UnitItemVectors vectors) {
             this.universe = universe;
             this.recommender = recommender;
+            this.vectors = vectors;
         }
 
         void addUser(ILSMetric.UserResult ur) {
-            allMean.add(ur.getIlsValue());
-        }
-    }
-
-    private Double calculateCosineSimilarity(RealVector targetVector, RealVector candidateVector){
-        Double cosineValue = 0D;
-        try {
-            cosineValue = targetVector.cosine(candidateVector);
+            ilsSum.add(ur.getIlsValue());
+            userCount.increment();
         }
-        catch (Exception e){
 
+        /**
+         * Get the mean ILS of the users measured so far.
+         * @return The mean, or 0 if no users have been measured.
+         */
+        double getMean() {
+            long n = userCount.sum();
+            return n == 0 ? 0 : ilsSum.sum() / n;
         }
-        return cosineValue;
     }
 }
@@ -0,0 +1,20 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling how many index partitions are searched per recommendation request.
+ * More probes raise recall at the cost of latency; 0 disables the index.
+ */
+@Documented
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(8)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface IndexProbes {
+}
@@ -0,0 +1,97 @@
+package org.lenskit.mooc.svd;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.LenskitRecommenderEngine;
+import org.lenskit.LenskitRecommenderEngineBuilder;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.config.ConfigHelpers;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.util.keys.KeyIndex;
+
+import java.io.File;
+import java.nio.file.Paths;
+
+/**
+ * Measures the recall and latency of the approximate item index against exact top-N scoring.
+ * For each number of probed partitions, it reports recall@N (the fraction of each user's exact
+ * top N that the index also returns, averaged over users) and the mean time per request.
+ *
+ * Usage: {@code IndexRecallEvaluator <data.yml> <N> <partitions> <config.groovy>...}
+ */
+public final class IndexRecallEvaluator {
+    private IndexRecallEvaluator() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("usage: IndexRecallEvaluator DATA.yml N PARTITIONS CONFIG.groovy...");
+            System.exit(2);
+        }
+        DataAccessObject dao = RatingCacheFile.load(Paths.get(args[0])).get();
+        int listSize = Integer.parseInt(args[1]);
+        int partitions = Integer.parseInt(args[2]);
+        LenskitRecommenderEngineBuilder builder = LenskitRecommenderEngine.newBuilder();
+        for (int i = 3; i < args.length; i++) {
+            builder.addConfiguration(ConfigHelpers.load(new File(args[i])));
+        }
+        LenskitRecommenderEngine engine = builder.build(dao);
+
+        try (LenskitRecommender rec = engine.createRecommender(dao)) {
+            SVDModel model = rec.get(SVDModel.class);
+            SVDItemScorer scorer = rec.get(SVDItemScorer.class);
+            BiasModel bias = rec.get(BiasModel.class);
+            ItemFactorIndex index = new ItemFactorIndexBuilder(model, bias, partitions, 42, -1).get();
+            KeyIndex users = model.getUserIndexMapping();
+            // cached top-N lists would hide the difference between exact and approximate search
+            SVDResultCache nocache = SVDResultCache.disabled(model);
+            // rescoring every item keeps the baseline exact even for quantized models
+            int rerank = model.getItemIndexMapping().size();
+
+            SVDItemRecommender exact = new SVDItemRecommender(model, scorer, dao, index, 0, nocache, rerank);
+            LongSet[] truth = new LongSet[users.size()];
+            long start = System.nanoTime();
+            for (int u = 0; u < users.size(); u++) {
+                truth[u] = itemSet(exact.recommendWithDetails(users.getKey(u), listSize, null, null));
+            }
+            double exactMicros = (System.nanoTime() - start) / 1000.0 / users.size();
+
+            System.out.format("%d users, %d items, %d partitions, recall@%d%n",
+                              users.size(), model.getItemIndexMapping().size(),
+                              index.getPartitionCount(), listSize);
+            System.out.format("%8s %10s %12s%n", "probes", "recall", "us/request");
+            System.out.format("%8s %10.4f %12.1f%n", "exact", 1.0, exactMicros);
+            for (int probes = 1; probes < index.getPartitionCount(); probes *= 2) {
+                SVDItemRecommender approx = new SVDItemRecommender(model, scorer, dao, index, probes, nocache, rerank);
+                double recall = 0;
+                start = System.nanoTime();
+                for (int u = 0; u < users.size(); u++) {
+                    ResultList found = approx.recommendWithDetails(users.getKey(u), listSize, null, null);
+                    if (truth[u].isEmpty()) {
+                        recall += 1;
+                        continue;
+                    }
+                    int hits = 0;
+                    for (Result r: found) {
+                        if (truth[u].contains(r.getId())) {
+                            hits++;
+                        }
+                    }
+                    recall += hits / (double) truth[u].size();
+                }
+                double micros = (System.nanoTime() - start) / 1000.0 / users.size();
+                System.out.format("%8d %10.4f %12.1f%n", probes, recall / users.size(), micros);
+            }
+        }
+    }
+
+    private static LongSet itemSet(ResultList results) {
+        LongSet set = new LongOpenHashSet(results.size());
+        for (Result r: results) {
+            set.add(r.getId());
+        }
+        return set;
+    }
+}
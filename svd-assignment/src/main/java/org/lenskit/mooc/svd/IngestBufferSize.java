@@ -0,0 +1,21 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter bounding the number of ratings the model builder buffers in memory while it reads
+ * the training data; beyond this, buffered ratings are spilled to a temporary file.  0 buffers
+ * every rating in memory.
+ */
+@Documented
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(4000000)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface IngestBufferSize {
+}
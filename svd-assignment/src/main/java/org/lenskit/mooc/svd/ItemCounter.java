@@ -0,0 +1,55 @@
+package org.lenskit.mooc.svd;
+
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.lenskit.util.keys.KeyIndex;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Counts occurrences of a fixed set of items, such as how often each item is recommended.  The
+ * counts are an atomic array indexed by the items' rows, so many threads can count without
+ * locks or boxing.  Items outside the index are not counted.
+ */
+final class ItemCounter {
+    private final KeyIndex items;
+    private final AtomicIntegerArray counts;
+
+    /**
+     * Create a counter.
+     * @param items The index of the items to count.
+     */
+    ItemCounter(KeyIndex items) {
+        this.items = items;
+        counts = new AtomicIntegerArray(items.size());
+    }
+
+    /**
+     * Count each item of a list once.
+     * @param list The items.
+     * @return The number of items counted; the others are unknown.
+     */
+    int add(LongList list) {
+        int counted = 0;
+        for (int j = 0, n = list.size(); j < n; j++) {
+            int row = items.tryGetIndex(list.getLong(j));
+            if (row >= 0) {
+                counts.incrementAndGet(row);
+                counted++;
+            }
+        }
+        return counted;
+    }
+
+    KeyIndex getItemIndex() {
+        return items;
+    }
+
+    /**
+     * Get an item's count.
+     * @param row The item's row in the item index.
+     * @return The number of times the item has been counted.
+     */
+    int getCount(int row) {
+        return counts.get(row);
+    }
+}
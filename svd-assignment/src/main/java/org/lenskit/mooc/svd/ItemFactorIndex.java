@@ -0,0 +1,125 @@
+package org.lenskit.mooc.svd;
+
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.lenskit.inject.Shareable;
+
+import java.io.Serializable;
+
+/**
+ * Approximate maximum-inner-product search index over the item factors, as an inverted file
+ * (IVF) of k-means partitions.
+ *
+ * An item's score is {@code (1 - w) * (u . v) + userOffset + itemOffset}, so each item is indexed
+ * by its augmented vector {@code [v, itemOffset]}, which a query {@code [(1 - w) u, 1]} turns
+ * into its score by a single inner product.  The partitions are found by clustering the augmented
+ * vectors after the MIPS-to-nearest-neighbor transform, which appends
+ * {@code sqrt(M^2 - |x|^2)} (where M is the largest norm) so that every indexed vector has the
+ * same norm and Euclidean distance to the query orders vectors exactly as inner product does.
+ *
+ * A search ranks the partition centroids by distance to the query and scores every item in the
+ * closest few, exactly.  The number of partitions probed trades recall for latency.
+ */
+@Shareable
+@DefaultProvider(ItemFactorIndexBuilder.class)
+public class ItemFactorIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int dimension;
+    private final int partitionCount;
+    private final double scoreScale;
+    private final double[] centroids;
+    private final double[] centroidNorms;
+    private final int[] partitionOffsets;
+    private final long[] itemIds;
+    private final double[] vectors;
+
+    /**
+     * Construct an index.
+     * @param dim The dimension of the augmented item vectors (feature count + 1).
+     * @param scale The factor {@code 1 - w} applied to the user vector.
+     * @param centroids The partition centroids in the transformed space ({@code dim + 1} values
+     *                  each, row-major).
+     * @param offsets The start of each partition in {@code ids}, plus the total item count.
+     * @param ids The item IDs, grouped by partition.
+     * @param vecs The augmented item vectors ({@code dim} values each), parallel to {@code ids}.
+     */
+    ItemFactorIndex(int dim, double scale, double[] centroids, int[] offsets, long[] ids, double[] vecs) {
+        dimension = dim;
+        partitionCount = offsets.length - 1;
+        scoreScale = scale;
+        this.centroids = centroids;
+        partitionOffsets = offsets;
+        itemIds = ids;
+        vectors = vecs;
+
+        centroidNorms = new double[partitionCount];
+        for (int p = 0; p < partitionCount; p++) {
+            double norm = 0;
+            for (int d = 0; d <= dim; d++) {
+                double x = centroids[p * (dim + 1) + d];
+                norm += x * x;
+            }
+            centroidNorms[p] = norm;
+        }
+    }
+
+    /**
+     * Create an empty index, for when approximate search is not configured.
+     * @return An index with no partitions.
+     */
+    static ItemFactorIndex empty() {
+        return new ItemFactorIndex(0, 1, new double[0], new int[1], new long[0], new double[0]);
+    }
+
+    /**
+     * Query whether the index has been built.
+     * @return {@code true} if the index has partitions to search.
+     */
+    public boolean isEnabled() {
+        return partitionCount > 0;
+    }
+
+    /**
+     * Get the number of partitions.
+     * @return The partition count.
+     */
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    /**
+     * Search for a user's top-scoring items.
+     * @param uvec The user's weighted feature vector.
+     * @param userOffset The user's part of the score.
+     * @param probes The number of partitions to search.
+     * @param exclude Items to skip.
+     * @param heap The heap to receive the (item ID, score) pairs of the best items found.
+     */
+    void search(double[] uvec, double userOffset, int probes, LongSet exclude, TopNHeap heap) {
+        final int dim = dimension;
+        double[] query = new double[dim];
+        for (int d = 0; d < dim - 1; d++) {
+            query[d] = scoreScale * uvec[d];
+        }
+        query[dim - 1] = 1;
+
+        // closest centroids: |c|^2 - 2 q.c orders them by distance to [q, 0]
+        TopNHeap closest = new TopNHeap(Math.min(probes, partitionCount));
+        FactorKernels kernels = FactorKernels.get();
+        for (int p = 0; p < partitionCount; p++) {
+            double dot = kernels.dot(query, 0, centroids, p * (dim + 1), dim);
+            closest.offer(p, 2 * dot - centroidNorms[p]);
+        }
+
+        for (int j = 0; j < closest.size(); j++) {
+            int p = (int) closest.getKey(j);
+            for (int pos = partitionOffsets[p]; pos < partitionOffsets[p + 1]; pos++) {
+                double score = userOffset + kernels.dot(query, 0, vectors, pos * dim, dim);
+                if (score > heap.threshold() && !exclude.contains(itemIds[pos])) {
+                    heap.offer(itemIds[pos], score);
+                }
+            }
+        }
+    }
+}
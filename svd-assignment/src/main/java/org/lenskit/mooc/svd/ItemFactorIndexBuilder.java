@@ -0,0 +1,189 @@
+package org.lenskit.mooc.svd;
+
+import org.lenskit.bias.BiasModel;
+import org.lenskit.inject.Transient;
+import org.lenskit.util.keys.KeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Builds the {@link ItemFactorIndex} by k-means clustering of the transformed item vectors.
+ */
+public class ItemFactorIndexBuilder implements Provider<ItemFactorIndex> {
+    private static final Logger logger = LoggerFactory.getLogger(ItemFactorIndexBuilder.class);
+    private static final int KMEANS_ITERATIONS = 10;
+
+    private final SVDModel model;
+    private final BiasModel baseline;
+    private final int partitions;
+    private final int seed;
+    private final double popularityWeight;
+
+    /**
+     * Construct the index builder.
+     * @param model The SVD model whose items are indexed.
+     * @param bias The bias model used for scoring.
+     * @param partitions The number of partitions (0 to build no index).
+     * @param seed The random seed for clustering (0 to seed from the clock).
+     * @param popWeight The popularity weight (in percent) used for scoring, or negative to use
+     *                  the model's.
+     */
+    @Inject
+    public ItemFactorIndexBuilder(@Transient SVDModel model,
+                                  @Transient BiasModel bias,
+                                  @IndexPartitions int partitions,
+                                  @RandomSeed int seed,
+                                  @ScoringPopularityWeight int popWeight) {
+        this.model = model;
+        baseline = bias;
+        this.partitions = partitions;
+        this.seed = seed;
+        popularityWeight = SVDItemScorer.scoringPopularityWeight(model, popWeight);
+    }
+
+    @Override
+    public ItemFactorIndex get() {
+        KeyIndex items = model.getItemIndexMapping();
+        final int n = items.size();
+        final int np = Math.min(partitions, n);
+        if (np <= 0) {
+            return ItemFactorIndex.empty();
+        }
+        long start = System.currentTimeMillis();
+        final int k = model.getFeatureCount();
+        final int dim = k + 1;
+        final int tdim = dim + 1;
+
+        // augmented vectors [v, offset], then the MIPS-to-NN coordinate
+        double[] offsets = SVDItemScorer.computeItemOffsets(model, baseline, popularityWeight);
+        double[] points = new double[n * tdim];
+        double maxNorm = 0;
+        for (int i = 0; i < n; i++) {
+            int base = i * tdim;
+            double norm = 0;
+            for (int f = 0; f < k; f++) {
+                double x = model.getItemFeatureMatrix().getEntry(i, f);
+                points[base + f] = x;
+                norm += x * x;
+            }
+            points[base + k] = offsets[i];
+            norm += offsets[i] * offsets[i];
+            points[base + dim] = norm;
+            maxNorm = Math.max(maxNorm, norm);
+        }
+        for (int i = 0; i < n; i++) {
+            int base = i * tdim;
+            points[base + dim] = Math.sqrt(Math.max(0, maxNorm - points[base + dim]));
+        }
+
+        Random random = seed != 0 ? new Random(seed) : new Random();
+        int[] assignment = cluster(points, n, tdim, np, random);
+
+        // group the items by partition
+        int[] partOffsets = new int[np + 1];
+        for (int a: assignment) {
+            partOffsets[a + 1] += 1;
+        }
+        for (int p = 0; p < np; p++) {
+            partOffsets[p + 1] += partOffsets[p];
+        }
+        int[] fill = Arrays.copyOf(partOffsets, np);
+        long[] ids = new long[n];
+        double[] vectors = new double[n * dim];
+        for (int i = 0; i < n; i++) {
+            int pos = fill[assignment[i]]++;
+            ids[pos] = items.getKey(i);
+            System.arraycopy(points, i * tdim, vectors, pos * dim, dim);
+        }
+        double[] centroids = centroids(points, n, tdim, np, assignment);
+
+        logger.info("built {}-partition index over {} items in {}ms", np, n,
+                    System.currentTimeMillis() - start);
+        return new ItemFactorIndex(dim, 1 - popularityWeight, centroids, partOffsets, ids, vectors);
+    }
+
+    /**
+     * Cluster points with Lloyd's k-means algorithm.
+     * @return The partition of each point.
+     */
+    private static int[] cluster(double[] points, int n, int dim, int np, Random random) {
+        // initialize from distinct random points (partial Fisher-Yates shuffle)
+        int[] perm = new int[n];
+        for (int i = 0; i < n; i++) {
+            perm[i] = i;
+        }
+        double[] centroids = new double[np * dim];
+        for (int p = 0; p < np; p++) {
+            int j = p + random.nextInt(n - p);
+            int tmp = perm[p];
+            perm[p] = perm[j];
+            perm[j] = tmp;
+            System.arraycopy(points, perm[p] * dim, centroids, p * dim, dim);
+        }
+
+        int[] assignment = new int[n];
+        for (int iter = 0; iter < KMEANS_ITERATIONS; iter++) {
+            int changed = 0;
+            for (int i = 0; i < n; i++) {
+                int best = 0;
+                double bestDist = Double.POSITIVE_INFINITY;
+                for (int p = 0; p < np; p++) {
+                    double dist = 0;
+                    for (int d = 0; d < dim; d++) {
+                        double diff = points[i * dim + d] - centroids[p * dim + d];
+                        dist += diff * diff;
+                    }
+                    if (dist < bestDist) {
+                        bestDist = dist;
+                        best = p;
+                    }
+                }
+                if (iter == 0 || assignment[i] != best) {
+                    changed++;
+                    assignment[i] = best;
+                }
+            }
+            logger.debug("k-means iteration {}: {} reassigned", iter, changed);
+            if (iter > 0 && changed == 0) {
+                break;
+            }
+            centroids = centroids(points, n, dim, np, assignment);
+            // re-seed empty partitions with random points
+            int[] sizes = new int[np];
+            for (int a: assignment) {
+                sizes[a] += 1;
+            }
+            for (int p = 0; p < np; p++) {
+                if (sizes[p] == 0) {
+                    System.arraycopy(points, random.nextInt(n) * dim, centroids, p * dim, dim);
+                }
+            }
+        }
+        return assignment;
+    }
+
+    private static double[] centroids(double[] points, int n, int dim, int np, int[] assignment) {
+        double[] centroids = new double[np * dim];
+        int[] sizes = new int[np];
+        for (int i = 0; i < n; i++) {
+            int p = assignment[i];
+            sizes[p] += 1;
+            for (int d = 0; d < dim; d++) {
+                centroids[p * dim + d] += points[i * dim + d];
+            }
+        }
+        for (int p = 0; p < np; p++) {
+            if (sizes[p] > 0) {
+                for (int d = 0; d < dim; d++) {
+                    centroids[p * dim + d] /= sizes[p];
+                }
+            }
+        }
+        return centroids;
+    }
+}
@@ -0,0 +1,21 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultString;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter selecting how the SGD learning rate adapts during training: {@code constant},
+ * {@code bold-driver} (grow the rate while the loss falls, halve it when the loss rises) or
+ * {@code adagrad} (per-factor rates scaled by accumulated squared gradients).
+ */
+@Documented
+@Qualifier
+@Parameter(String.class)
+@DefaultString("constant")
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface LearningRateSchedule {
+}
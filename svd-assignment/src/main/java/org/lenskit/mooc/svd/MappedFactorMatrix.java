@@ -0,0 +1,49 @@
+package org.lenskit.mooc.svd;
+
+import java.io.ObjectStreamException;
+import java.nio.FloatBuffer;
+
+/**
+ * Read-only feature matrix whose entries are single-precision floats in a (typically
+ * memory-mapped) buffer, stored row-major.  Reads go straight to the buffer; nothing is copied
+ * onto the heap.
+ */
+class MappedFactorMatrix extends CompactFactorMatrix {
+    private static final long serialVersionUID = 1L;
+
+    private final transient FloatBuffer buffer;
+
+    /**
+     * Wrap a buffer as a matrix.
+     * @param buf The buffer, holding {@code nrows * ncols} floats from its position 0.
+     * @param nrows The number of rows.
+     * @param ncols The number of columns.
+     */
+    MappedFactorMatrix(FloatBuffer buf, int nrows, int ncols) {
+        super(nrows, ncols);
+        buffer = buf;
+    }
+
+    @Override
+    public double getEntry(int row, int column) {
+        return buffer.get(row * columns + column);
+    }
+
+    @Override
+    double dotRow(int row, double[] vec) {
+        int base = row * columns;
+        double dot = 0;
+        for (int c = 0; c < columns; c++) {
+            dot += buffer.get(base + c) * vec[c];
+        }
+        return dot;
+    }
+
+    /**
+     * Serialize as an on-heap single-precision copy, since the mapping itself cannot be
+     * serialized.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return FloatFactorMatrix.of(this);
+    }
+}
@@ -0,0 +1,111 @@
+package org.lenskit.mooc.svd;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.lenskit.data.dao.file.EntitySource;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityType;
+import org.lenskit.data.ratings.RatingBuilder;
+import org.lenskit.util.io.AbstractObjectStream;
+import org.lenskit.util.io.ObjectStream;
+
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Entity source reading ratings from the columns of a memory-mapped rating cache file (see
+ * {@link RatingCacheFile}).  Rating objects are created as the stream is read; nothing is parsed.
+ */
+public class MappedRatingSource implements EntitySource {
+    private final String name;
+    private final int size;
+    private final LongBuffer ids;
+    private final LongBuffer users;
+    private final LongBuffer items;
+    private final LongBuffer timestamps;
+    private final FloatBuffer values;
+    private final Map<String, Object> metadata;
+
+    /**
+     * Construct a mapped rating source.
+     * @param name The source name.
+     * @param size The number of ratings.
+     * @param ids The rating entity ID column.
+     * @param users The user ID column.
+     * @param items The item ID column.
+     * @param timestamps The timestamp column (-1 for none).
+     * @param values The value column (NaN for an unrate event).
+     * @param metadata The source metadata.
+     */
+    MappedRatingSource(String name, int size, LongBuffer ids, LongBuffer users, LongBuffer items,
+                       LongBuffer timestamps, FloatBuffer values, Map<String, Object> metadata) {
+        this.name = name;
+        this.size = size;
+        this.ids = ids;
+        this.users = users;
+        this.items = items;
+        this.timestamps = timestamps;
+        this.values = values;
+        this.metadata = ImmutableMap.copyOf(metadata);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Set<EntityType> getTypes() {
+        return ImmutableSet.of(CommonTypes.RATING);
+    }
+
+    /**
+     * Get the number of ratings.
+     * @return The rating count.
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public ObjectStream<Entity> openStream() {
+        return new AbstractObjectStream<Entity>() {
+            private final RatingBuilder builder = new RatingBuilder();
+            private int next = 0;
+
+            @Override
+            public Entity readObject() {
+                if (next >= size) {
+                    return null;
+                }
+                int k = next++;
+                builder.reset();
+                builder.setId(ids.get(k))
+                       .setUserId(users.get(k))
+                       .setItemId(items.get(k));
+                float value = values.get(k);
+                if (!Float.isNaN(value)) {
+                    builder.setRating(value);
+                }
+                long timestamp = timestamps.get(k);
+                if (timestamp >= 0) {
+                    builder.setTimestamp(timestamp);
+                }
+                return builder.build();
+            }
+        };
+    }
+
+    @Override
+    public Map<String, Object> getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedRatingSource(" + name + ", " + size + " ratings)";
+    }
+}
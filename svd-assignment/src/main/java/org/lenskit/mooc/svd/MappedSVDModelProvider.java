@@ -0,0 +1,30 @@
+package org.lenskit.mooc.svd;
+
+import org.lenskit.api.RecommenderBuildException;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Provides an SVD model by memory-mapping a file written by {@link SVDModelFile}, instead of
+ * training one.  Bind it with {@code bind SVDModel toProvider MappedSVDModelProvider}.
+ */
+public class MappedSVDModelProvider implements Provider<SVDModel> {
+    private final String path;
+
+    @Inject
+    public MappedSVDModelProvider(@ModelFile String file) {
+        path = file;
+    }
+
+    @Override
+    public SVDModel get() {
+        try {
+            return SVDModelFile.map(Paths.get(path));
+        } catch (IOException e) {
+            throw new RecommenderBuildException("cannot map model file " + path, e);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultString;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter giving the path of a binary model file for {@link MappedSVDModelProvider} to map.
+ */
+@Documented
+@Qualifier
+@Parameter(String.class)
+@DefaultString("build/svd-model.bin")
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ModelFile {
+}
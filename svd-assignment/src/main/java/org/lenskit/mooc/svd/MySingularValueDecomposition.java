@@ -16,204 +16,703 @@
  */
 package org.lenskit.mooc.svd;
 
-import it.unimi.dsi.fastutil.longs.LongSet;
-import org.apache.commons.math3.exception.NumberIsTooLargeException;
-import org.apache.commons.math3.exception.util.LocalizedFormats;
-import org.apache.commons.math3.util.FastMath;
-import org.apache.commons.math3.util.Precision;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.*;
-import org.codehaus.groovy.runtime.powerassert.SourceText;
-import org.lenskit.data.dao.DataAccessObject;
-import org.lenskit.data.entities.CommonAttributes;
-import org.lenskit.data.ratings.Rating;
-import org.lenskit.mooc.svd.SVDModelBuilder.MyRating;
-import org.lenskit.util.keys.KeyIndex;
-
-import java.util.HashMap;
-import java.util.List;
-import java.util.Random;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MySingularValueDecomposition {
+    private static final Logger logger = LoggerFactory.getLogger(MySingularValueDecomposition.class);
+
+    private final int featureCount;
+    private final int userCount;
+    private final int itemCount;
+    /**
+     * User factors, laid out row-major: user {@code u}'s features are at
+     * {@code [u * featureCount, (u + 1) * featureCount)}.
+     */
+    private final double[] userFeatures;
+    /**
+     * Item factors, laid out row-major like {@link #userFeatures}.
+     */
+    private final double[] itemFeatures;
+    /**
+     * Weight of each feature in the prediction; the singular values for {@link Engine#SVD}, and
+     * 1 for the iterative engines (whose factors absorb the scale).
+     */
+    private final double[] singularValues;
+    private final SparseRatingMatrix ratings;
+    private final Engine engine;
+    private final int threadCount;
+    private final Random random;
+    private final TrainingConfig config;
+    /**
+     * Whether each rating is held out of training for validation.
+     */
+    private boolean[] heldOut;
+    /**
+     * AdaGrad accumulated squared gradients, parallel to the factor arrays; {@code null} unless
+     * the AdaGrad schedule is in use.
+     */
+    private double[] userGradients;
+    private double[] itemGradients;
 
-    private final int m;
+    private static final double ADAGRAD_EPSILON = 1.0e-8;
+    /**
+     * The most epochs ALS runs, whatever the configured cap.  Each ALS epoch solves every row
+     * exactly, so it converges in far fewer epochs than SGD.
+     */
+    static final int ALS_MAX_EPOCHS = 10;
+    private static final FactorKernels KERNELS = FactorKernels.get();
 
-    private final int n;
+    /**
+     * Training engines.
+     */
+    public enum Engine {
+        /**
+         * Stochastic gradient descent over the shuffled ratings; Hogwild! when multi-threaded.
+         */
+        SGD,
+        /**
+         * Distributed (stratified block) SGD: conflict-free parallel blocks, reproducible for a
+         * fixed seed regardless of thread timing.
+         */
+        DSGD,
+        /**
+         * Alternating least squares: solve every user's normal equations with the items fixed,
+         * then every item's with the users fixed.  Rows are solved in parallel.  Runs at
+         * most {@link MySingularValueDecomposition#ALS_MAX_EPOCHS} epochs.
+         */
+        ALS,
+        /**
+         * True truncated SVD of the residual matrix, by {@link RandomizedSVD}.  Unlike the other
+         * engines this produces singular values as well as factors.
+         */
+        SVD;
 
+        /**
+         * Look up an engine by its (case-insensitive) configuration name.
+         * @param name The engine name.
+         * @return The engine.
+         * @throws IllegalArgumentException if there is no such engine.
+         */
+        public static Engine fromName(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public MySingularValueDecomposition(SparseRatingMatrix ratings, int featureCount) {
+        this(ratings, featureCount, Engine.SGD, 1, 0, TrainingConfig.defaults());
+    }
+
+    /**
+     * Train a factorization.
+     * @param ratings The normalized rating matrix.
+     * @param featureCount The number of latent features.
+     * @param engine The training engine.
+     * @param threads The number of training threads; with more than one, SGD epochs are run
+     *                Hogwild!-style (lock-free updates to shared factors) and DSGD uses that
+     *                many strata.
+     * @param seed The random seed, or 0 to seed from the clock.
+     * @param config The training hyperparameters (ignored by {@link Engine#SVD}).
+     */
+    public MySingularValueDecomposition(SparseRatingMatrix ratings, int featureCount,
+                                        Engine engine, int threads, long seed,
+                                        TrainingConfig config) {
+        this(ratings, featureCount, engine, threads, seed, config, null);
+    }
 
-    private HashMap<Long, Double> itemPopularity;
-    private int featureCount ;
-    RealMatrix userMatrix;
-    RealMatrix itemMatrix;
-    RealMatrix originalMatrix;
-    double[][] ratingData ;
-    List<MyRating> ratingList;
-    KeyIndex itemIndex;
-    double TARGET_POP = 2.5;
-    public MySingularValueDecomposition(RealMatrix matrix, int featureCount, HashMap<Long, Double> itemPop, int noOfUsers, int noOfItems, KeyIndex itemIndex) {
-        this.itemIndex = itemIndex;
-        this.ratingList = ratingList;
-        this.itemPopularity = itemPop;
+    /**
+     * Train a factorization, optionally warm-started from a previous model.
+     * @param warmStart The initial factors of users and items known to a previous model, or
+     *                  {@code null} to start every factor from random noise.  Ignored by
+     *                  {@link Engine#SVD}, which does not iterate.
+     * @see #MySingularValueDecomposition(SparseRatingMatrix, int, Engine, int, long, TrainingConfig)
+     */
+    MySingularValueDecomposition(SparseRatingMatrix ratings, int featureCount,
+                                 Engine engine, int threads, long seed,
+                                 TrainingConfig config, @Nullable FactorSeed warmStart) {
+        Preconditions.checkArgument(threads > 0, "thread count must be positive");
         this.featureCount = featureCount;
-        this.n = matrix.getColumnDimension();
-        this.m = matrix.getRowDimension();
-        userMatrix = MatrixUtils.createRealMatrix(noOfUsers, featureCount);
-        Random rand = new Random();
-        for(int i = 0; i< noOfUsers; i++) {
-            for(int j = 0; j<featureCount; j++) {
-                userMatrix.setEntry(i,j, rand.nextDouble()/10.0);
-            }
+        this.engine = engine;
+        this.config = engine == Engine.ALS ? config.withMaxEpochs(ALS_MAX_EPOCHS) : config;
+        threadCount = threads;
+        random = seed == 0 ? new Random() : new Random(seed);
+        this.ratings = ratings;
+        userCount = ratings.getUserCount();
+        itemCount = ratings.getItemCount();
+        userFeatures = new double[userCount * featureCount];
+        itemFeatures = new double[itemCount * featureCount];
+        singularValues = new double[featureCount];
+        if(engine == Engine.SVD){
+            computeTruncatedSVD();
+            return;
         }
-        itemMatrix = MatrixUtils.createRealMatrix(noOfItems, featureCount);
-        for(int i = 0; i< noOfItems; i++) {
-            for(int j = 0; j<featureCount; j++) {
-                itemMatrix.setEntry(i,j, rand.nextDouble()/10.0);
-            }
+        Arrays.fill(singularValues, 1.0);
+        for(int i = 0; i < userFeatures.length; i++) {
+            userFeatures[i] = random.nextDouble()/10.0;
+        }
+        for(int i = 0; i < itemFeatures.length; i++) {
+            itemFeatures[i] = random.nextDouble()/10.0;
+        }
+        if(warmStart != null){
+            int users = warmStart.seedUsers(userFeatures);
+            int items = warmStart.seedItems(itemFeatures);
+            logger.info("warm-started {} of {} users and {} of {} items from the prior model",
+                        users, userCount, items, itemCount);
         }
-        originalMatrix = matrix;
-        ratingData = matrix.getData();
         computeSVD();
     }
 
+    /**
+     * Compute the top singular triplets of the rating matrix directly, instead of training.
+     */
+    private void computeTruncatedSVD(){
+        long start = System.nanoTime();
+        RandomizedSVD svd = new RandomizedSVD(ratings, featureCount, random);
+        copyRows(svd.getUserMatrix(), userFeatures);
+        copyRows(svd.getItemMatrix(), itemFeatures);
+        System.arraycopy(svd.getSingularValues(), 0, singularValues, 0, featureCount);
+        logger.info("computed truncated SVD in {} ms (top singular value {})",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), singularValues[0]);
+    }
+
+    private void copyRows(RealMatrix matrix, double[] features){
+        for(int r = 0; r < matrix.getRowDimension(); r++){
+            for(int f = 0; f < featureCount; f++){
+                features[r * featureCount + f] = matrix.getEntry(r, f);
+            }
+        }
+    }
+
+    /**
+     * Train the factors with the configured engine.  SGD epochs visit the observed ratings (and
+     * only those) once, in a freshly shuffled order; ALS epochs solve every row once.  Training
+     * stops at the epoch cap, or once the validation RMSE has not improved for the configured
+     * patience, in which case the best factors seen are kept.
+     */
     public void computeSVD(){
+        final int nratings = ratings.size();
+        double alpha = config.getLearningRate();
+        final double beta = config.getRegularization();
 
-        int MAX_ITERATION =45;
-        double alpha = 0.002;
-        double beta = 0.02;
-        double error = 0.0;
-        double totalerror = 0.0;
-        double weight = 1;
-        double totalObjective = 0.0;
-        int count = 0;
-        for(int step = 1; step <= MAX_ITERATION; step++){
-            totalerror = 0.0;
-            count = 0;
-            totalObjective = 0.0;
-//            for(MyRating ratingObject: ratingList){
-//                double rating = ratingObject.getRating();
-//                long userIndex = ratingObject.getUserId();
-//                long itemIndex = ratingObject.getItemId();
-//
-//                try{
-//
-//                    double[] u = userMatrix.getRow((int)userIndex);
-//                    double[] v = itemMatrix.getRow((int)itemIndex);
-//                    if(userIndex==704 && itemIndex==1227){
-//                        System.out.print("\nU: ");
-//                        for(int l=0; l<featureCount; l++){
-//                            System.out.print(u[l]+" ");
-//                        }
-//                        System.out.print("\nV: ");
-//                        for(int l=0; l<featureCount; l++){
-//                            System.out.print(v[l]+" ");
-//                        }
-//                        System.out.println();
-//                    }
-//                    error = Math.pow((rating - dotProduct(u,v)),2); //
-//                    totalerror += error;
-//                    //Math.pow(dotProduct(u, v), 2);
-//                    for(int k=0; k<featureCount; k++){
-//                        double tempu = u[k];
-//                        double tempv = v[k];
-//                        u[k] = u[k] + alpha * (2 * error * v[k] - beta * u[k]);
-//                        v[k] = v[k] + alpha * (2 * error * u[k] - beta * v[k]);
-//                        if(u[k] >= Double.MAX_VALUE || v[k] >= Double.MAX_VALUE){
-//                            System.out.println("Gotcha");
-//                        }
-//                        else if(u[k] <= Double.MIN_VALUE || v[k] <= Double.MIN_VALUE){
-//                            System.out.println("Gotcha");
-//                        }
-//                    }
-//                    //System.out.println("v[0]="+v[0]+"\tu[0]="+u[0]);
-//                    userMatrix.setRow((int)userIndex, u);
-//                    itemMatrix.setRow((int)itemIndex, v);
-//                }catch (Exception ex){
-//                    System.out.println(ex.getMessage());
-//                }
-////                System.out.println("Current since cell error: "+error);
-//
-//            }
+        // hold out a random sample of the ratings to monitor for early stopping
+        heldOut = new boolean[nratings];
+        int[] validation = sampleValidation(config.getValidationFraction());
+        final int ntrain = nratings - validation.length;
+        int[] order = new int[ntrain];
+        for(int p = 0, o = 0; p < nratings; p++){
+            if(!heldOut[p]){
+                order[o++] = p;
+            }
+        }
+
+        int[] blockOffsets = null;
+        if(engine == Engine.DSGD){
+            blockOffsets = new int[threadCount * threadCount + 1];
+            order = partitionBlocks(threadCount, order, blockOffsets);
+            logger.info("training with DSGD over {} strata", threadCount);
+        } else if(engine == Engine.ALS){
+            logger.info("training with ALS on {} threads", threadCount);
+        }
+        if(config.getSchedule() == TrainingConfig.Schedule.ADAGRAD && engine != Engine.ALS){
+            userGradients = new double[userFeatures.length];
+            itemGradients = new double[itemFeatures.length];
+        }
+        logger.info("training {} ratings ({} held out) with {}", ntrain, validation.length, config);
+
+        ExecutorService pool = null;
+        if(threadCount > 1){
+            if(engine == Engine.SGD){
+                logger.info("training with {} Hogwild! workers", threadCount);
+            }
+            pool = Executors.newFixedThreadPool(threadCount, new WorkerThreadFactory());
+        }
+
+        // early stopping state; the best factors seen so far are kept and restored at the end
+        final boolean earlyStopping = config.getPatience() > 0;
+        double[] bestUsers = earlyStopping ? new double[userFeatures.length] : null;
+        double[] bestItems = earlyStopping ? new double[itemFeatures.length] : null;
+        double bestRMSE = Double.POSITIVE_INFINITY;
+        int bestEpoch = 0;
+        double lastRMSE = Double.NaN;
+        double lastLoss = Double.POSITIVE_INFINITY;
 
-            for(int i=0; i < ratingData.length; i++){
-                for(int j=0; j<ratingData[0].length; j++){
-                    double rating = ratingData[i][j];
-                    double objective = 0.0;
-                    if(rating != 0){
-                        count++;
-                        double[] u = userMatrix.getRow(i);
-                        double[] v = itemMatrix.getRow(j);
-//                        error = Math.pow((rating - dotProduct(u,v)),2); //
-                        error = rating - dotProduct(u,v);
-                        totalerror += Math.pow(error,2);
-                        //Math.pow(dotProduct(u, v), 2);
-                        long itemId = itemIndex.getKey(j);
-                        //weight = weight + alpha * (Math.pow(itemPopularity.get(itemId)-TARGET_POP, 2) - Math.pow(error , 2));
-
-                        for(int k=0; k<featureCount; k++){
-                            u[k] = u[k] + alpha * (2 * weight * error * v[k] - beta * u[k]);
-                            v[k] = v[k] + alpha * (2 * weight * error * u[k] - beta * v[k]);
-                        }
-
-                        userMatrix.setRow(i, u);
-                        itemMatrix.setRow(j, v);
-
-                        objective = weight * Math.pow(rating-dotProduct(u, v), 2) + (1 - weight) * Math.pow(itemPopularity.get(itemId) - TARGET_POP, 2);
-                        totalObjective += objective;
+        try {
+            for(int step = 1; step <= config.getMaxEpochs(); step++){
+                long start = System.nanoTime();
+                double[] result;
+                if(engine == Engine.ALS){
+                    result = trainAlternating(pool, beta);
+                } else if(engine == Engine.DSGD){
+                    result = trainStratified(pool, order, blockOffsets, alpha, beta);
+                } else if(pool == null){
+                    shuffle(order, 0, ntrain, random);
+                    result = trainSlice(order, 0, ntrain, alpha, beta);
+                } else {
+                    shuffle(order, 0, ntrain, random);
+                    result = trainHogwild(pool, order, alpha, beta);
+                }
+                double trainRMSE = Math.sqrt(result[0] / ntrain);
+                double validRMSE = validation.length > 0 ? validationRMSE(validation) : trainRMSE;
+                long elapsed = System.nanoTime() - start;
+                logger.info("epoch {}: RMSE {} (validation {}) over {} ratings at rate {} in {} ms ({} bytes allocated)",
+                            step, String.format("%.4f", trainRMSE), String.format("%.4f", validRMSE),
+                            ntrain, String.format("%.5f", alpha),
+                            TimeUnit.NANOSECONDS.toMillis(elapsed),
+                            AllocationCounter.isSupported() ? (long) result[1] : "unknown");
+
+                if(config.getSchedule() == TrainingConfig.Schedule.BOLD_DRIVER){
+                    alpha = result[0] < lastLoss ? alpha * 1.05 : alpha * 0.5;
+                }
+                lastLoss = result[0];
+                lastRMSE = validRMSE;
+
+                if(validRMSE < bestRMSE){
+                    bestRMSE = validRMSE;
+                    bestEpoch = step;
+                    if(earlyStopping){
+                        System.arraycopy(userFeatures, 0, bestUsers, 0, userFeatures.length);
+                        System.arraycopy(itemFeatures, 0, bestItems, 0, itemFeatures.length);
                     }
-//                    if(i==600)
-//                        System.out.format("\n Jhakkasi:%d  j:%d error :%f",i, j, error);
-//                    System.out.format("\n i:%d  j:%d error :%f",i, j, error);
-//                    if(j%20 == 0){
-//                        try {
-//                            Thread.sleep(1000);
-//                        } catch (InterruptedException e) {
-//                            e.printStackTrace();
-//                        }
-//                    }
+                } else if(earlyStopping && step >= config.getMinEpochs()
+                          && step - bestEpoch >= config.getPatience()){
+                    logger.info("validation RMSE has not improved for {} epochs, stopping", step - bestEpoch);
+                    break;
                 }
-                System.out.format("\n i:%d  Objective :%f  weight : %f",i, totalObjective, weight);
+            }
+        } finally {
+            if(pool != null){
+                pool.shutdown();
+            }
+        }
 
+        if(earlyStopping && bestEpoch > 0){
+            System.arraycopy(bestUsers, 0, userFeatures, 0, userFeatures.length);
+            System.arraycopy(bestItems, 0, itemFeatures, 0, itemFeatures.length);
+            logger.info("kept factors from epoch {} (validation RMSE {})", bestEpoch, bestRMSE);
+        } else {
+            logger.info("trained to validation RMSE {}", lastRMSE);
+        }
+    }
 
+    /**
+     * Mark a random sample of the ratings as held out.
+     * @param fraction The fraction of ratings to hold out.
+     * @return The positions of the held-out ratings.
+     */
+    private int[] sampleValidation(double fraction){
+        final int n = ratings.size();
+        int count = (int) (n * fraction);
+        int[] positions = new int[n];
+        for(int p = 0; p < n; p++){
+            positions[p] = p;
+        }
+        // partial Fisher-Yates: the last 'count' slots are a uniform sample
+        for(int i = n - 1; i >= n - count; i--){
+            int j = random.nextInt(i + 1);
+            int tmp = positions[i];
+            positions[i] = positions[j];
+            positions[j] = tmp;
+        }
+        int[] sample = Arrays.copyOfRange(positions, n - count, n);
+        for(int p: sample){
+            heldOut[p] = true;
+        }
+        return sample;
+    }
+
+    private double validationRMSE(int[] validation){
+        final int k = featureCount;
+        double sse = 0;
+        for(int p: validation){
+            double err = ratings.getValue(p)
+                    - dotProduct(userFeatures, ratings.getUser(p) * k,
+                                 itemFeatures, ratings.getItem(p) * k, k);
+            sse += err * err;
+        }
+        return Math.sqrt(sse / validation.length);
+    }
+
+    /**
+     * Run one epoch across the worker pool.  The shuffled order is cut into one contiguous
+     * slice per worker; workers update the shared factor arrays without locking, and the
+     * epoch ends when every slice is done.
+     * @return The summed squared error and allocated bytes of all workers.
+     */
+    private double[] trainHogwild(ExecutorService pool, final int[] order,
+                                  final double alpha, final double beta){
+        final int n = order.length;
+        List<Callable<double[]>> tasks = new ArrayList<>(threadCount);
+        for(int t = 0; t < threadCount; t++){
+            final int from = (int) ((long) n * t / threadCount);
+            final int to = (int) ((long) n * (t + 1) / threadCount);
+            tasks.add(() -> trainSlice(order, from, to, alpha, beta));
+        }
+        return runTasks(pool, tasks);
+    }
+
+    /**
+     * Group the rating positions into a P&times;P grid of blocks, by user and item stratum.
+     * @param strata The number of user (and item) strata, P.
+     * @param positions The rating positions to partition.
+     * @param offsets Array of length P&times;P + 1 to receive the start of each block; block
+     *                {@code (ub, ib)} is at index {@code ub * P + ib}.
+     * @return The rating positions, ordered by block.
+     */
+    private int[] partitionBlocks(int strata, int[] positions, int[] offsets){
+        final int n = positions.length;
+        int[] blockOf = new int[n];
+        for(int o = 0; o < n; o++){
+            int p = positions[o];
+            int block = (ratings.getUser(p) % strata) * strata + ratings.getItem(p) % strata;
+            blockOf[o] = block;
+            offsets[block + 1] += 1;
+        }
+        for(int b = 0; b < strata * strata; b++){
+            offsets[b + 1] += offsets[b];
+        }
+        int[] fill = Arrays.copyOf(offsets, strata * strata);
+        int[] order = new int[n];
+        for(int o = 0; o < n; o++){
+            order[fill[blockOf[o]]++] = positions[o];
+        }
+        return order;
+    }
+
+    /**
+     * Run one DSGD epoch.  The epoch is P sub-epochs; sub-epoch {@code s} trains the blocks
+     * {@code (b, (b + s) mod P)} in parallel.  Those blocks share no user or item rows, so the
+     * workers never write the same factors, and every random choice is drawn on the calling
+     * thread in a fixed order; the result depends only on the seed.
+     * @return The summed squared error and allocated bytes of all blocks.
+     */
+    private double[] trainStratified(ExecutorService pool, final int[] order, final int[] offsets,
+                                     final double alpha, final double beta){
+        final int strata = threadCount;
+        int[] shifts = new int[strata];
+        for(int s = 0; s < strata; s++){
+            shifts[s] = s;
+        }
+        shuffle(shifts, 0, strata, random);
+
+        double[] total = new double[2];
+        for(int shift: shifts){
+            List<Callable<double[]>> tasks = new ArrayList<>(strata);
+            for(int ub = 0; ub < strata; ub++){
+                int block = ub * strata + (ub + shift) % strata;
+                final int from = offsets[block];
+                final int to = offsets[block + 1];
+                final Random blockRandom = new Random(random.nextLong());
+                tasks.add(() -> {
+                    shuffle(order, from, to, blockRandom);
+                    return trainSlice(order, from, to, alpha, beta);
+                });
             }
-//            RealMatrix predMatrix = userMatrix.multiply((itemMatrix).transpose());
-//            computeError(predMatrix);
-            System.out.format("\nIteration : %d over , Error : %f", step, Math.sqrt(totalerror / (count)));
-            if(Math.abs(totalerror) <= 0.5)
-                break;
+            double[] r = runTasks(pool, tasks);
+            total[0] += r[0];
+            total[1] += r[1];
         }
+        return total;
+    }
 
-        System.out.format("\nTrained at Error : %f", totalerror);
+    /**
+     * Run one ALS epoch: re-solve all user rows against the fixed item factors, then all item
+     * rows against the new user factors.  Each half-step is split into one contiguous range of
+     * rows per thread.  The regularization matches the SGD objective, so each row solves
+     * (F<sup>T</sup>F + n &beta;/2 I) x = F<sup>T</sup>r over its n ratings.
+     * @return The squared error of the updated factors and the allocated bytes.
+     */
+    private double[] trainAlternating(ExecutorService pool, final double beta){
+        double[] users = runTasks(pool, rowTasks(true, userCount, beta));
+        double[] items = runTasks(pool, rowTasks(false, itemCount, beta));
+        return new double[]{items[0], users[1] + items[1]};
     }
 
-//    private double computeError(RealMatrix predMatrix){
-//        predMatrix.
-//    }
-    private double dotProduct(double[] u, double[] v){
-        double result = 0.0;
-//        double[] tempU = new double[u.length];
-//        for(int i=0; i< u.length; i++)
-//            tempU[i] = u[i];
-//        double[] tempV = new double[v.length];
-//        for(int i=0; i< v.length; i++)
-//            tempV[i] = v[i];
-        for(int i=0; i < u.length; i++){
-            result += (u[i] * v[i]);
-        }
-//        if(result >= Double.MAX_VALUE){
-//            System.out.println(result);
-//        }
-//        else if(result <= Double.MIN_VALUE){
-//            System.out.println(result);
-//        }
-        return result;
+    private List<Callable<double[]>> rowTasks(final boolean userRows, int nrows, final double beta){
+        List<Callable<double[]>> tasks = new ArrayList<>(threadCount);
+        for(int t = 0; t < threadCount; t++){
+            final int from = (int) ((long) nrows * t / threadCount);
+            final int to = (int) ((long) nrows * (t + 1) / threadCount);
+            tasks.add(() -> solveRows(userRows, from, to, beta));
+        }
+        return tasks;
+    }
+
+    /**
+     * Solve the least-squares problem for a range of user or item rows, holding the other side
+     * fixed.  Held-out ratings are ignored, and rows with no training ratings keep their current
+     * factors.
+     * @return The squared error of the solved rows' ratings (measured after solving) and the
+     *         bytes allocated by the thread.
+     */
+    private double[] solveRows(boolean userRows, int from, int to, double beta){
+        long allocStart = AllocationCounter.threadAllocatedBytes();
+        final int k = featureCount;
+        final double[] target = userRows ? userFeatures : itemFeatures;
+        final double[] fixed = userRows ? itemFeatures : userFeatures;
+        final double[] gram = new double[k * k];
+        final double[] rhs = new double[k];
+        double sse = 0;
+
+        for(int row = from; row < to; row++){
+            int start = userRows ? ratings.getUserStart(row) : ratings.getItemStart(row);
+            int end = userRows ? ratings.getUserEnd(row) : ratings.getItemEnd(row);
+            Arrays.fill(gram, 0);
+            Arrays.fill(rhs, 0);
+            int count = 0;
+            for(int e = start; e < end; e++){
+                int pos = userRows ? e : ratings.getItemEntry(e);
+                if(heldOut[pos]){
+                    continue;
+                }
+                count++;
+                int off = (userRows ? ratings.getItem(pos) : ratings.getUser(pos)) * k;
+                double r = ratings.getValue(pos);
+                for(int x = 0; x < k; x++){
+                    double fx = fixed[off + x];
+                    rhs[x] += r * fx;
+                    for(int y = 0; y <= x; y++){
+                        gram[x * k + y] += fx * fixed[off + y];
+                    }
+                }
+            }
+            if(count == 0){
+                continue;
+            }
+            double lambda = count * beta / 2;
+            for(int x = 0; x < k; x++){
+                gram[x * k + x] += lambda;
+            }
+            choleskySolve(gram, rhs, k);
+            System.arraycopy(rhs, 0, target, row * k, k);
+
+            for(int e = start; e < end; e++){
+                int pos = userRows ? e : ratings.getItemEntry(e);
+                if(heldOut[pos]){
+                    continue;
+                }
+                double err = ratings.getValue(pos)
+                        - dotProduct(userFeatures, ratings.getUser(pos) * k,
+                                     itemFeatures, ratings.getItem(pos) * k, k);
+                sse += err * err;
+            }
+        }
+        long allocated = AllocationCounter.threadAllocatedBytes() - allocStart;
+        return new double[]{sse, allocated};
+    }
+
+    /**
+     * Solve A x = b in place for a symmetric positive definite A.  Only the lower triangle of
+     * {@code a} (row-major, n &times; n) is read; it is overwritten with the Cholesky factor,
+     * and {@code b} is overwritten with the solution.
+     */
+    static void choleskySolve(double[] a, double[] b, int n){
+        for(int j = 0; j < n; j++){
+            double d = a[j * n + j];
+            for(int p = 0; p < j; p++){
+                d -= a[j * n + p] * a[j * n + p];
+            }
+            d = Math.sqrt(d);
+            a[j * n + j] = d;
+            for(int i = j + 1; i < n; i++){
+                double v = a[i * n + j];
+                for(int p = 0; p < j; p++){
+                    v -= a[i * n + p] * a[j * n + p];
+                }
+                a[i * n + j] = v / d;
+            }
+        }
+        // forward substitution: L y = b
+        for(int i = 0; i < n; i++){
+            double v = b[i];
+            for(int p = 0; p < i; p++){
+                v -= a[i * n + p] * b[p];
+            }
+            b[i] = v / a[i * n + i];
+        }
+        // back substitution: L^T x = y
+        for(int i = n - 1; i >= 0; i--){
+            double v = b[i];
+            for(int p = i + 1; p < n; p++){
+                v -= a[p * n + i] * b[p];
+            }
+            b[i] = v / a[i * n + i];
+        }
+    }
+
+    /**
+     * Run training tasks to completion, on the pool if there is one, and sum their results in
+     * task order.
+     */
+    private double[] runTasks(ExecutorService pool, List<Callable<double[]>> tasks){
+        double[] total = new double[2];
+        try {
+            if(pool == null){
+                for(Callable<double[]> task: tasks){
+                    double[] r = task.call();
+                    total[0] += r[0];
+                    total[1] += r[1];
+                }
+            } else {
+                for(Future<double[]> f: pool.invokeAll(tasks)){
+                    double[] r = f.get();
+                    total[0] += r[0];
+                    total[1] += r[1];
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("training interrupted", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+        return total;
+    }
+
+    /**
+     * Train a slice of the visiting order on the current thread.
+     * @return The squared error sum and the bytes the thread allocated while training.
+     */
+    private double[] trainSlice(int[] order, int from, int to, double alpha, double beta){
+        long allocStart = AllocationCounter.threadAllocatedBytes();
+        double sse = userGradients != null
+                ? trainEpochAdaGrad(order, from, to, alpha, beta)
+                : trainEpoch(order, from, to, alpha, beta);
+        long allocated = AllocationCounter.threadAllocatedBytes() - allocStart;
+        return new double[]{sse, allocated};
+    }
+
+    /**
+     * Run one SGD pass over a slice of the visiting order.  Factors are updated in place, and
+     * the loop allocates nothing.
+     * @param order The visiting order (positions in the rating matrix).
+     * @param from The first position in {@code order} to visit (inclusive).
+     * @param to The last position in {@code order} to visit (exclusive).
+     * @param alpha The learning rate.
+     * @param beta The regularization term.
+     * @return The sum of squared errors of the visited ratings, measured before each update.
+     */
+    double trainEpoch(int[] order, int from, int to, double alpha, double beta){
+        final int k = featureCount;
+        final double[] uf = userFeatures;
+        final double[] vf = itemFeatures;
+        double totalerror = 0.0;
+        for(int o = from; o < to; o++){
+            int p = order[o];
+            int uoff = ratings.getUser(p) * k;
+            int voff = ratings.getItem(p) * k;
+            double error = ratings.getValue(p) - dotProduct(uf, uoff, vf, voff, k);
+            totalerror += error * error;
+
+            double scale = 2 * alpha * error;
+            double decay = 1 - alpha * beta;
+            KERNELS.update(uf, uoff, vf, voff, k, decay, scale);
+        }
+        return totalerror;
+    }
+
+    /**
+     * Run one SGD pass with AdaGrad step sizes: each factor's step is the learning rate divided
+     * by the root of its accumulated squared gradients.
+     * @see #trainEpoch(int[], int, int, double, double)
+     */
+    double trainEpochAdaGrad(int[] order, int from, int to, double alpha, double beta){
+        final int k = featureCount;
+        final double[] uf = userFeatures;
+        final double[] vf = itemFeatures;
+        final double[] ug = userGradients;
+        final double[] vg = itemGradients;
+        double totalerror = 0.0;
+        for(int o = from; o < to; o++){
+            int p = order[o];
+            int uoff = ratings.getUser(p) * k;
+            int voff = ratings.getItem(p) * k;
+            double error = ratings.getValue(p) - dotProduct(uf, uoff, vf, voff, k);
+            totalerror += error * error;
+
+            for(int f = 0; f < k; f++){
+                double u = uf[uoff + f];
+                double v = vf[voff + f];
+                double gu = beta * u - 2 * error * v;
+                double gv = beta * v - 2 * error * u;
+                double su = ug[uoff + f] + gu * gu;
+                double sv = vg[voff + f] + gv * gv;
+                ug[uoff + f] = su;
+                vg[voff + f] = sv;
+                uf[uoff + f] = u - alpha * gu / Math.sqrt(su + ADAGRAD_EPSILON);
+                vf[voff + f] = v - alpha * gv / Math.sqrt(sv + ADAGRAD_EPSILON);
+            }
+        }
+        return totalerror;
+    }
+
+    /**
+     * Shuffle a range of an array in place (Fisher-Yates).
+     */
+    static void shuffle(int[] array, int from, int to, Random rand){
+        for(int i = to - 1; i > from; i--){
+            int j = from + rand.nextInt(i - from + 1);
+            int tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    /**
+     * Compute the dot product of two factor rows stored in flat arrays.
+     */
+    static double dotProduct(double[] u, int uoff, double[] v, int voff, int n){
+        return KERNELS.dot(u, uoff, v, voff, n);
+    }
+
+    /**
+     * Thread factory for training workers.  Workers are daemons so an abandoned build cannot
+     * keep the JVM alive.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "svd-train-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Get the feature weights (singular values).
+     * @return The weight of each feature; all 1 unless the engine is {@link Engine#SVD}.
+     */
+    public double[] getSingularValues(){
+        return singularValues.clone();
     }
 
     public RealMatrix getUserMatrix(){
-        return userMatrix;
+        return toMatrix(userFeatures, userCount);
     }
 
     public RealMatrix getItemMatrix(){
-        return itemMatrix;
+        return toMatrix(itemFeatures, itemCount);
+    }
+
+    private RealMatrix toMatrix(double[] features, int rows){
+        double[][] data = new double[rows][];
+        for(int r = 0; r < rows; r++){
+            data[r] = new double[featureCount];
+            System.arraycopy(features, r * featureCount, data[r], 0, featureCount);
+        }
+        return new Array2DRowRealMatrix(data, false);
     }
 
     /**
@@ -0,0 +1,20 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultString;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter giving the path of a binary model file (see {@link SVDModelFile}) to warm-start
+ * training from.  The default, the empty string, trains from random factors.
+ */
+@Documented
+@Qualifier
+@Parameter(String.class)
+@DefaultString("")
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface PriorModelFile {
+}
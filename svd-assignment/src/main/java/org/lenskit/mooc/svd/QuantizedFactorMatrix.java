@@ -0,0 +1,105 @@
+package org.lenskit.mooc.svd;
+
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Read-only feature matrix quantized to 8-bit integers with one scale per row: entry
+ * {@code (r, c)} is {@code data[r * ncols + c] * scales[r]}, where each row's scale maps its
+ * largest magnitude to 127.  An eighth of the size of a double-precision matrix.
+ *
+ * Besides exact dot products against a double-precision vector ({@link #dotRow(int, double[])}),
+ * the matrix can compute approximate dot products in integer arithmetic, by quantizing the
+ * query vector the same way ({@link #approxDotRange(double[], int, int, double[])}).
+ */
+class QuantizedFactorMatrix extends CompactFactorMatrix {
+    private static final long serialVersionUID = 1L;
+    private static final int LEVELS = 127;
+
+    private final byte[] data;
+    private final float[] scales;
+
+    private QuantizedFactorMatrix(byte[] data, float[] scales, int nrows, int ncols) {
+        super(nrows, ncols);
+        this.data = data;
+        this.scales = scales;
+    }
+
+    /**
+     * Quantize a matrix.
+     * @param matrix The matrix to quantize.
+     * @return The quantized copy.
+     */
+    static QuantizedFactorMatrix quantize(RealMatrix matrix) {
+        final int nrows = matrix.getRowDimension();
+        final int ncols = matrix.getColumnDimension();
+        byte[] data = new byte[nrows * ncols];
+        float[] scales = new float[nrows];
+        double[] row = new double[ncols];
+        for (int r = 0; r < nrows; r++) {
+            for (int c = 0; c < ncols; c++) {
+                row[c] = matrix.getEntry(r, c);
+            }
+            float scale = scale(row);
+            scales[r] = scale;
+            for (int c = 0; c < ncols; c++) {
+                data[r * ncols + c] = (byte) quantize(row[c], scale);
+            }
+        }
+        return new QuantizedFactorMatrix(data, scales, nrows, ncols);
+    }
+
+    /**
+     * Compute the scale that maps a vector's largest magnitude to the largest quantized level.
+     */
+    private static float scale(double[] vec) {
+        double max = 0;
+        for (double x: vec) {
+            max = Math.max(max, Math.abs(x));
+        }
+        return max > 0 ? (float) (max / LEVELS) : 1;
+    }
+
+    private static int quantize(double x, float scale) {
+        return (int) Math.max(-LEVELS, Math.min(LEVELS, Math.round(x / scale)));
+    }
+
+    @Override
+    public double getEntry(int row, int column) {
+        return data[row * columns + column] * scales[row];
+    }
+
+    @Override
+    double dotRow(int row, double[] vec) {
+        int base = row * columns;
+        double dot = 0;
+        for (int c = 0; c < columns; c++) {
+            dot += data[base + c] * vec[c];
+        }
+        return dot * scales[row];
+    }
+
+    /**
+     * Compute approximate dot products of a vector with a range of rows, in integer arithmetic.
+     * The vector is quantized once with its own scale; each row then costs one integer dot
+     * product and one multiplication.
+     * @param vec The vector.
+     * @param from The first row.
+     * @param to The end of the row range (exclusive).
+     * @param out The array to receive the dot products ({@code out[j]} for row {@code from + j}).
+     */
+    void approxDotRange(double[] vec, int from, int to, double[] out) {
+        float vscale = scale(vec);
+        int[] qvec = new int[columns];
+        for (int c = 0; c < columns; c++) {
+            qvec[c] = quantize(vec[c], vscale);
+        }
+        for (int row = from; row < to; row++) {
+            int base = row * columns;
+            int dot = 0;
+            for (int c = 0; c < columns; c++) {
+                dot += data[base + c] * qvec[c];
+            }
+            out[row - from] = dot * (double) vscale * scales[row];
+        }
+    }
+}
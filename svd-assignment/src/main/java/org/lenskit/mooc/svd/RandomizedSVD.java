@@ -0,0 +1,171 @@
+package org.lenskit.mooc.svd;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Truncated singular value decomposition of a sparse rating matrix by randomized range finding
+ * (Halko, Martinsson &amp; Tropp, 2011).  Only the top {@code rank} singular triplets are
+ * computed: the matrix is sketched onto a small random subspace, refined with a few power
+ * iterations, and the dense SVD is taken of the (rank + oversampling) &times; items projection.
+ * Cost is linear in the number of ratings, rather than cubic in the matrix dimensions as with a
+ * full commons-math {@link SingularValueDecomposition}.
+ */
+public class RandomizedSVD {
+    private static final Logger logger = LoggerFactory.getLogger(RandomizedSVD.class);
+    private static final int OVERSAMPLING = 10;
+    private static final int POWER_ITERATIONS = 2;
+
+    private final RealMatrix userMatrix;
+    private final RealMatrix itemMatrix;
+    private final double[] singularValues;
+
+    /**
+     * Compute a truncated SVD.
+     * @param matrix The matrix to decompose (users &times; items).
+     * @param rank The number of singular triplets to keep.
+     * @param random The random number generator for the sketch.
+     */
+    public RandomizedSVD(SparseRatingMatrix matrix, int rank, Random random) {
+        final int m = matrix.getUserCount();
+        final int n = matrix.getItemCount();
+        final int l = Math.min(rank + OVERSAMPLING, Math.min(m, n));
+        Preconditions.checkArgument(rank > 0 && rank <= l,
+                                    "rank %s out of range for %s x %s matrix", rank, m, n);
+        logger.info("computing rank-{} randomized SVD of {} x {} matrix with {} samples",
+                    rank, m, n, l);
+
+        // range finder: Q spans the column space of A * Omega
+        double[][] omega = new double[l][n];
+        for (double[] col: omega) {
+            for (int i = 0; i < n; i++) {
+                col[i] = random.nextGaussian();
+            }
+        }
+        double[][] q = multiply(matrix, omega);
+        orthonormalize(q);
+        for (int it = 0; it < POWER_ITERATIONS; it++) {
+            double[][] z = multiplyTransposed(matrix, q);
+            orthonormalize(z);
+            q = multiply(matrix, z);
+            orthonormalize(q);
+        }
+
+        // B = Q^T A is small (l x n); its SVD gives the rest
+        double[][] b = multiplyTransposed(matrix, q);
+        SingularValueDecomposition small = new SingularValueDecomposition(new Array2DRowRealMatrix(b, false));
+        RealMatrix ub = small.getU();
+
+        double[][] u = new double[m][rank];
+        for (int c = 0; c < l; c++) {
+            double[] qc = q[c];
+            for (int j = 0; j < rank; j++) {
+                double w = ub.getEntry(c, j);
+                for (int row = 0; row < m; row++) {
+                    u[row][j] += qc[row] * w;
+                }
+            }
+        }
+        userMatrix = new Array2DRowRealMatrix(u, false);
+        itemMatrix = small.getV().getSubMatrix(0, n - 1, 0, rank - 1);
+        singularValues = new double[rank];
+        System.arraycopy(small.getSingularValues(), 0, singularValues, 0, rank);
+    }
+
+    /**
+     * Get the left singular vectors.
+     * @return The user matrix U (users &times; rank).
+     */
+    public RealMatrix getUserMatrix() {
+        return userMatrix;
+    }
+
+    /**
+     * Get the right singular vectors.
+     * @return The item matrix V (items &times; rank).
+     */
+    public RealMatrix getItemMatrix() {
+        return itemMatrix;
+    }
+
+    /**
+     * Get the singular values, in non-increasing order.
+     * @return The top {@code rank} singular values.
+     */
+    public double[] getSingularValues() {
+        return singularValues.clone();
+    }
+
+    /**
+     * Compute A X for column-major X (each {@code cols[c]} is a column of length items).
+     * @return A X, column-major (each column has length users).
+     */
+    private static double[][] multiply(SparseRatingMatrix a, double[][] cols) {
+        double[][] result = new double[cols.length][a.getUserCount()];
+        for (int c = 0; c < cols.length; c++) {
+            double[] in = cols[c];
+            double[] out = result[c];
+            for (int p = 0; p < a.size(); p++) {
+                out[a.getUser(p)] += a.getValue(p) * in[a.getItem(p)];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compute A<sup>T</sup> X for column-major X (each {@code cols[c]} has length users).
+     * @return A<sup>T</sup> X, column-major (each column has length items).
+     */
+    private static double[][] multiplyTransposed(SparseRatingMatrix a, double[][] cols) {
+        double[][] result = new double[cols.length][a.getItemCount()];
+        for (int c = 0; c < cols.length; c++) {
+            double[] in = cols[c];
+            double[] out = result[c];
+            for (int p = 0; p < a.size(); p++) {
+                out[a.getItem(p)] += a.getValue(p) * in[a.getUser(p)];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Orthonormalize columns in place by modified Gram-Schmidt, applied twice for stability.
+     * Columns that collapse to zero are left as zero.
+     */
+    private static void orthonormalize(double[][] cols) {
+        for (int pass = 0; pass < 2; pass++) {
+            for (int c = 0; c < cols.length; c++) {
+                double[] col = cols[c];
+                for (int prev = 0; prev < c; prev++) {
+                    double[] other = cols[prev];
+                    double proj = 0;
+                    for (int i = 0; i < col.length; i++) {
+                        proj += col[i] * other[i];
+                    }
+                    for (int i = 0; i < col.length; i++) {
+                        col[i] -= proj * other[i];
+                    }
+                }
+                double norm = 0;
+                for (double x: col) {
+                    norm += x * x;
+                }
+                norm = Math.sqrt(norm);
+                if (norm > 1.0e-12) {
+                    for (int i = 0; i < col.length; i++) {
+                        col[i] /= norm;
+                    }
+                } else {
+                    Arrays.fill(col, 0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.lenskit.mooc.svd;
+
+import com.google.common.collect.ImmutableSet;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.lenskit.data.dao.file.EntitySource;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.dao.file.TextEntitySource;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.io.ObjectStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Reads and writes the binary rating cache, a packed columnar copy of a rating file.  Loading a
+ * data source through {@link #load(Path)} reads ratings from the cache, memory-mapped, instead of
+ * parsing the CSV text; the cache is written the first time and rewritten whenever the text file
+ * is newer, and every process loading the same data shares it.
+ *
+ * The file is little-endian:
+ *
+ * <ol>
+ * <li>a 16-byte header: magic number {@code SVDR}, format version, rating count and a reserved
+ * int;</li>
+ * <li>the rating entity IDs, the user IDs, the item IDs and the timestamps (longs; -1 for no
+ * timestamp);</li>
+ * <li>the rating values (floats; NaN for an unrate event).</li>
+ * </ol>
+ *
+ * Values are stored in single precision, which represents the usual half-star rating scales
+ * exactly.
+ */
+public final class RatingCacheFile {
+    private static final Logger logger = LoggerFactory.getLogger(RatingCacheFile.class);
+    static final int MAGIC = 0x53564452;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    /**
+     * The extension that replaces a rating file's own to name its cache.
+     */
+    public static final String EXTENSION = ".bin";
+
+    private RatingCacheFile() {}
+
+    /**
+     * Load a data source, reading each rating file from its cache.  Sources other than delimited
+     * rating files are loaded as usual.
+     *
+     * The returned source is a new {@link StaticDataSource} with the same name and sources.  It
+     * has no indexes or derived entities beyond LensKit's defaults: a data source manifest cannot
+     * declare them, and {@link StaticDataSource} does not expose those added in code, so they
+     * cannot be copied.  Callers that need them must add them to the returned source with
+     * {@link StaticDataSource#addIndex} and {@link StaticDataSource#addDerivedEntity}.
+     *
+     * @param file The data source description (YAML or JSON).
+     * @return The data source.
+     * @throws IOException if there is an error reading the data or writing a cache.
+     */
+    public static StaticDataSource load(Path file) throws IOException {
+        StaticDataSource text = StaticDataSource.load(file);
+        StaticDataSource cached = new StaticDataSource(text.getName());
+        for (EntitySource source: text.getSources()) {
+            cached.addSource(cachedSource(source));
+        }
+        return cached;
+    }
+
+    private static EntitySource cachedSource(EntitySource source) throws IOException {
+        if (!(source instanceof TextEntitySource)
+                || !source.getTypes().equals(ImmutableSet.of(CommonTypes.RATING))) {
+            return source;
+        }
+        Path file = ((TextEntitySource) source).getFile();
+        if (file == null) {
+            return source;
+        }
+        Path cache = getCacheFile(file);
+        if (Files.exists(cache)
+                && Files.getLastModifiedTime(cache).compareTo(Files.getLastModifiedTime(file)) >= 0) {
+            try {
+                return map(cache, source.getName(), source.getMetadata());
+            } catch (IOException e) {
+                logger.warn("cannot use rating cache {}, rewriting it: {}", cache, e.getMessage());
+            }
+        }
+        logger.info("caching ratings from {} in {}", file, cache);
+        write(source, cache);
+        return map(cache, source.getName(), source.getMetadata());
+    }
+
+    /**
+     * Get the cache file of a rating file.
+     * @param file The rating file.
+     * @return The cache file, next to the rating file.
+     */
+    public static Path getCacheFile(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return file.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + EXTENSION);
+    }
+
+    /**
+     * Write the ratings of an entity source to a cache file.  The file is written under a
+     * temporary name and then moved into place, so a process reading the cache never sees a
+     * partly written file.
+     * @param source The entity source; entities other than ratings are ignored.
+     * @param file The output file (replaced if it exists).
+     * @throws IOException if there is an error reading the source or writing the file.
+     */
+    public static void write(EntitySource source, Path file) throws IOException {
+        LongArrayList ids = new LongArrayList();
+        LongArrayList users = new LongArrayList();
+        LongArrayList items = new LongArrayList();
+        LongArrayList timestamps = new LongArrayList();
+        FloatArrayList values = new FloatArrayList();
+        try (ObjectStream<Entity> entities = source.openStream()) {
+            for (Entity entity: entities) {
+                if (!(entity instanceof Rating)) {
+                    continue;
+                }
+                Rating rating = (Rating) entity;
+                ids.add(rating.getId());
+                users.add(rating.getUserId());
+                items.add(rating.getItemId());
+                timestamps.add(rating.getTimestamp());
+                // the value of an unrate event is NaN, and stays NaN in single precision
+                values.add((float) rating.getValue());
+            }
+        }
+
+        final int n = values.size();
+        Path dir = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                SVDModelFile.Output out = new SVDModelFile.Output(channel);
+                out.putInt(MAGIC);
+                out.putInt(VERSION);
+                out.putInt(n);
+                out.putInt(0);
+                for (int k = 0; k < n; k++) {
+                    out.putLong(ids.getLong(k));
+                }
+                for (int k = 0; k < n; k++) {
+                    out.putLong(users.getLong(k));
+                }
+                for (int k = 0; k < n; k++) {
+                    out.putLong(items.getLong(k));
+                }
+                for (int k = 0; k < n; k++) {
+                    out.putLong(timestamps.getLong(k));
+                }
+                for (int k = 0; k < n; k++) {
+                    out.putFloat(values.getFloat(k));
+                }
+                out.flush();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        logger.info("wrote {} ratings to {}", n, file);
+    }
+
+    /**
+     * Open a rating cache file by memory-mapping it.
+     * @param file The cache file.
+     * @return The rating source, named {@code ratings}.
+     * @throws IOException if there is an error reading the file, or it is not a rating cache.
+     */
+    public static MappedRatingSource map(Path file) throws IOException {
+        return map(file, "ratings", Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Open a rating cache file by memory-mapping it.
+     * @param file The cache file.
+     * @param name The name of the rating source.
+     * @param metadata The metadata of the rating source.
+     * @return The rating source.
+     * @throws IOException if there is an error reading the file, or it is not a rating cache.
+     */
+    public static MappedRatingSource map(Path file, String name, Map<String, Object> metadata) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = SVDModelFile.map(channel, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(file + ": not a rating cache file");
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IOException(file + ": unsupported rating cache version " + version);
+            }
+            final int n = header.getInt(8);
+            final long column = 8L * n;
+            MappedRatingSource source = new MappedRatingSource(
+                    name, n,
+                    SVDModelFile.map(channel, HEADER_SIZE, column).asLongBuffer(),
+                    SVDModelFile.map(channel, HEADER_SIZE + column, column).asLongBuffer(),
+                    SVDModelFile.map(channel, HEADER_SIZE + 2 * column, column).asLongBuffer(),
+                    SVDModelFile.map(channel, HEADER_SIZE + 3 * column, column).asLongBuffer(),
+                    SVDModelFile.map(channel, HEADER_SIZE + 4 * column, 4L * n).asFloatBuffer(),
+                    metadata);
+            logger.info("mapped {} ratings from {}", n, file);
+            return source;
+        }
+    }
+
+    /**
+     * Write (or refresh) the rating caches of a data source.
+     *
+     * Usage: {@code RatingCacheFile <data.yml>}
+     *
+     * @param args The command-line arguments.
+     * @throws Exception if the data cannot be read or the cache written.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("usage: RatingCacheFile DATA.yml");
+            System.exit(2);
+        }
+        for (EntitySource source: load(Paths.get(args[0])).getSources()) {
+            System.out.println(source);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.lenskit.mooc.svd;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.FrozenHashKeyIndex;
+import org.lenskit.util.keys.HashKeyIndex;
+import org.lenskit.util.keys.KeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Single-pass ingestion of the training ratings.  One scan of the rating DAO interns the user
+ * and item IDs, counts each user's and item's ratings, and records each rating's residual from
+ * the baseline as a primitive (user, item, residual) triple.  Everything the model builder needs
+ * (the key indexes, the item popularity and the training matrix) is derived from that scan.
+ *
+ * Triples are buffered in memory up to a bound, then spilled to a temporary file, so the
+ * ingestion itself needs memory only for the buffer and the counts.  Once the scan is done the
+ * exact size of every user's row is known, so {@link #buildMatrix()} replays the triples
+ * straight into their final positions in the sparse matrix, with no intermediate copy.
+ *
+ * An ingest is used once, and {@link #close()} deletes the spill file.
+ */
+class RatingIngest implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(RatingIngest.class);
+
+    private final BiasModel baseline;
+    private final double popularityWeight;
+    private final int bufferSize;
+
+    private final HashKeyIndex userIds;
+    private final HashKeyIndex itemIds;
+    private final IntArrayList userCounts = new IntArrayList();
+    private final IntArrayList itemCounts = new IntArrayList();
+    private final IntArrayList bufferUsers = new IntArrayList();
+    private final IntArrayList bufferItems = new IntArrayList();
+    private final DoubleArrayList bufferValues = new DoubleArrayList();
+    private Path spillFile;
+    private DataOutputStream spill;
+    private int spilled;
+    private int total;
+
+    private KeyIndex userIndex;
+    private KeyIndex itemIndex;
+    private double[] itemPopularity;
+
+    /**
+     * Construct a rating ingest.
+     * @param bias The baseline to compute residuals from.
+     * @param popWeight The weight given to item popularity in the training targets.
+     * @param buffer The maximum number of triples to buffer in memory (0 for no limit).
+     */
+    RatingIngest(BiasModel bias, double popWeight, int buffer) {
+        baseline = bias;
+        popularityWeight = popWeight;
+        bufferSize = buffer;
+        userIds = HashKeyIndex.create();
+        itemIds = HashKeyIndex.create();
+    }
+
+    /**
+     * Scan the ratings.  Every user and item entity is indexed, even without ratings, in the
+     * order the DAO lists them; the rows of rated entities do not depend on the rating order.
+     * @param dao The data access object.
+     * @throws UncheckedIOException if the triples cannot be spilled.
+     */
+    void scan(DataAccessObject dao) {
+        for (long user: FrozenHashKeyIndex.create(dao.getEntityIds(CommonTypes.USER)).getKeyList()) {
+            userIds.internId(user);
+        }
+        for (long item: FrozenHashKeyIndex.create(dao.getEntityIds(CommonTypes.ITEM)).getKeyList()) {
+            itemIds.internId(item);
+        }
+        growCounts();
+
+        try (ObjectStream<Rating> ratings = dao.query(Rating.class).stream()) {
+            for (Rating rating: ratings) {
+                long user = rating.getUserId();
+                long item = rating.getItemId();
+                int u = userIds.internId(user);
+                int i = itemIds.internId(item);
+                if (u >= userCounts.size() || i >= itemCounts.size()) {
+                    growCounts();
+                }
+                userCounts.set(u, userCounts.getInt(u) + 1);
+                itemCounts.set(i, itemCounts.getInt(i) + 1);
+
+                double value = rating.getValue();
+                if (value > 0) {
+                    value -= baseline.getIntercept() + baseline.getUserBias(user) + baseline.getItemBias(item);
+                }
+                bufferUsers.add(u);
+                bufferItems.add(i);
+                bufferValues.add(value);
+                total++;
+                if (bufferSize > 0 && bufferValues.size() >= bufferSize) {
+                    spillBuffer();
+                }
+            }
+            if (spill != null) {
+                spill.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot spill ratings to " + spillFile, e);
+        }
+
+        userIndex = userIds.frozenCopy();
+        itemIndex = itemIds.frozenCopy();
+        itemPopularity = computePopularity();
+        logger.info("ingested {} ratings of {} items by {} users ({} spilled to disk)",
+                    total, itemIndex.size(), userIndex.size(), spilled);
+    }
+
+    private void growCounts() {
+        userCounts.size(userIds.size());
+        itemCounts.size(itemIds.size());
+    }
+
+    private void spillBuffer() throws IOException {
+        if (spill == null) {
+            spillFile = Files.createTempFile("svd-ratings", ".bin");
+            spill = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile), 1 << 16));
+            logger.info("spilling buffered ratings to {}", spillFile);
+        }
+        final int n = bufferValues.size();
+        for (int k = 0; k < n; k++) {
+            spill.writeInt(bufferUsers.getInt(k));
+            spill.writeInt(bufferItems.getInt(k));
+            spill.writeDouble(bufferValues.getDouble(k));
+        }
+        spilled += n;
+        bufferUsers.clear();
+        bufferItems.clear();
+        bufferValues.clear();
+    }
+
+    /**
+     * Normalize the rating counts to popularity: an item with one rating has popularity 0, and
+     * the most-rated item has popularity 5.  Unrated items have popularity 0.
+     */
+    private double[] computePopularity() {
+        int maxCount = 0;
+        for (int i = 0; i < itemCounts.size(); i++) {
+            maxCount = Math.max(maxCount, itemCounts.getInt(i));
+        }
+        double[] pop = new double[itemCounts.size()];
+        for (int i = 0; i < pop.length; i++) {
+            int count = itemCounts.getInt(i);
+            if (count > 0 && maxCount > 1) {
+                pop[i] = (count - 1.0) / (maxCount - 1.0) * 5;
+            }
+        }
+        return pop;
+    }
+
+    public KeyIndex getUserIndex() {
+        return userIndex;
+    }
+
+    public KeyIndex getItemIndex() {
+        return itemIndex;
+    }
+
+    /**
+     * Get the normalized item popularity.
+     * @return The popularity of each item, by row in {@link #getItemIndex()}.
+     */
+    public double[] getItemPopularity() {
+        return itemPopularity;
+    }
+
+    /**
+     * Build the training matrix.  Each cell holds the rating's training target: its residual from
+     * the baseline, blended with the item's popularity.
+     * @return The sparse training matrix.
+     * @throws UncheckedIOException if the spilled triples cannot be read.
+     */
+    SparseRatingMatrix buildMatrix() {
+        final int nusers = userIndex.size();
+        int[] offsets = new int[nusers + 1];
+        for (int u = 0; u < nusers; u++) {
+            offsets[u + 1] = offsets[u] + userCounts.getInt(u);
+        }
+        int[] fill = new int[nusers];
+        System.arraycopy(offsets, 0, fill, 0, nusers);
+        int[] users = new int[total];
+        int[] items = new int[total];
+        double[] values = new double[total];
+
+        if (spilled > 0) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile), 1 << 16))) {
+                for (int k = 0; k < spilled; k++) {
+                    int u = in.readInt();
+                    int i = in.readInt();
+                    place(u, i, in.readDouble(), fill, users, items, values);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("cannot read spilled ratings from " + spillFile, e);
+            }
+        }
+        for (int k = 0; k < bufferValues.size(); k++) {
+            place(bufferUsers.getInt(k), bufferItems.getInt(k), bufferValues.getDouble(k),
+                  fill, users, items, values);
+        }
+
+        SparseRatingMatrix matrix = SparseRatingMatrix.wrap(nusers, itemIndex.size(), offsets, users, items, values);
+        logger.info("stored {} ratings in sparse matrix", matrix.size());
+        return matrix;
+    }
+
+    private void place(int u, int i, double residual, int[] fill, int[] users, int[] items, double[] values) {
+        int pos = fill[u]++;
+        users[pos] = u;
+        items[pos] = i;
+        values[pos] = (1 - popularityWeight) * residual + popularityWeight * itemPopularity[i];
+    }
+
+    /**
+     * Delete the spill file, if there is one.
+     */
+    @Override
+    public void close() throws IOException {
+        if (spill != null) {
+            spill.close();
+        }
+        if (spillFile != null) {
+            Files.deleteIfExists(spillFile);
+        }
+    }
+}
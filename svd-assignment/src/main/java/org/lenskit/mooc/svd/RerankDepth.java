@@ -0,0 +1,20 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling how many of the best approximately-scored items (with quantized factors)
+ * are rescored at full precision before the top N are chosen.  0 disables rescoring.
+ */
+@Documented
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(100)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RerankDepth {
+}
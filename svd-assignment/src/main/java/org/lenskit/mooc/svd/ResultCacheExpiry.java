@@ -0,0 +1,20 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling how long, in seconds, a cached user vector or top-N list lives after it
+ * is computed.  0 keeps entries until they are evicted for space.
+ */
+@Documented
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(600)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ResultCacheExpiry {
+}
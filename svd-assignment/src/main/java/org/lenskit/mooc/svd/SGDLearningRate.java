@@ -0,0 +1,19 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultDouble;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the (initial) learning rate of SGD training.
+ */
+@Documented
+@Qualifier
+@Parameter(Double.class)
+@DefaultDouble(0.002)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface SGDLearningRate {
+}
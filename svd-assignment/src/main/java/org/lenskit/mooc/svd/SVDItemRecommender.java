@@ -0,0 +1,166 @@
+package org.lenskit.mooc.svd;
+
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+import org.lenskit.basic.AbstractItemRecommender;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.results.BasicResult;
+import org.lenskit.results.Results;
+import org.lenskit.util.keys.KeyIndex;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Top-N recommender for the SVD model.  Rather than scoring every candidate into a result map
+ * and sorting it, it streams scores through a bounded {@link TopNHeap}, checks the exclude set
+ * only for items good enough to enter the heap, and creates result objects only for the final
+ * top N.  Memory use is independent of the catalogue size.
+ *
+ * When an {@link ItemFactorIndex} has been built, recommendations from the whole catalogue
+ * search only the {@link IndexProbes} most promising index partitions instead of every item.
+ * When the model's factors are quantized, the catalogue is scanned with approximate integer
+ * scores, and the best {@link RerankDepth} of those are rescored at full precision.
+ */
+public class SVDItemRecommender extends AbstractItemRecommender {
+    /**
+     * Number of item rows scored per block when streaming the whole catalogue.
+     */
+    private static final int BLOCK_SIZE = 256;
+
+    private final SVDModel model;
+    private final SVDItemScorer scorer;
+    private final DataAccessObject dao;
+    private final ItemFactorIndex index;
+    private final int probes;
+    private final SVDResultCache cache;
+    private final int rerankDepth;
+
+    /**
+     * Construct an SVD recommender.
+     * @param m The model.
+     * @param scorer The scorer for the model.
+     * @param dao The data access object, used to find the user's rated items to exclude.
+     * @param index The approximate search index.
+     * @param probes The number of index partitions to search (0 to always score every item).
+     * @param cache The cache of user vectors and top-N lists.
+     * @param rerank The number of approximately-scored items to rescore exactly.
+     */
+    @Inject
+    public SVDItemRecommender(SVDModel m, SVDItemScorer scorer, DataAccessObject dao,
+                              ItemFactorIndex index, @IndexProbes int probes,
+                              SVDResultCache cache, @RerankDepth int rerank) {
+        model = m;
+        this.scorer = scorer;
+        this.dao = dao;
+        this.index = index;
+        this.probes = probes;
+        this.cache = cache;
+        rerankDepth = rerank;
+    }
+
+    /**
+     * Recommend items.
+     * @param user The user ID.
+     * @param n The number of items to recommend, or a negative number for all of them.
+     * @param candidates The candidate items, or {@code null} for all items in the model.
+     * @param exclude The items to exclude, or {@code null} for the items the user has rated.
+     * @return The recommendations, best first.
+     */
+    @Override
+    protected ResultList recommendWithDetails(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
+        if (exclude == null) {
+            exclude = getDefaultExcludes(user);
+        }
+        TopNHeap heap;
+        if (candidates == null) {
+            ResultList cached = cache.getTopN(user, n, exclude);
+            if (cached != null) {
+                return cached;
+            }
+            heap = new TopNHeap(n >= 0 ? n : model.getItemIndexMapping().size());
+            scoreAllItems(user, exclude, heap);
+        } else {
+            heap = new TopNHeap(n >= 0 ? n : candidates.size());
+            scoreCandidates(user, candidates, exclude, heap);
+        }
+
+        int count = heap.sortDescending();
+        List<Result> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(new BasicResult(heap.getKey(i), heap.getScore(i)));
+        }
+        ResultList list = Results.newResultList(results);
+        if (candidates == null) {
+            cache.putTopN(user, n, exclude, list);
+        }
+        return list;
+    }
+
+    /**
+     * Stream the whole catalogue through the heap, a block of item rows at a time.
+     */
+    private void scoreAllItems(long user, LongSet exclude, TopNHeap heap) {
+        double[] uvec = scorer.getUserVector(user);
+        if (uvec == null) {
+            return;
+        }
+        KeyIndex items = model.getItemIndexMapping();
+        double userOffset = scorer.getUserOffset(user);
+        if (index.isEnabled() && probes > 0 && probes < index.getPartitionCount()) {
+            index.search(uvec, userOffset, probes, exclude, heap);
+            return;
+        }
+        // with approximate scores, first collect the best rows, then rescore them
+        boolean rerank = model.hasApproximateRangeScores() && rerankDepth > 0;
+        TopNHeap pass = rerank ? new TopNHeap(Math.max(rerankDepth, heap.capacity())) : heap;
+        double[] scores = new double[BLOCK_SIZE];
+        final int nitems = items.size();
+        for (int from = 0; from < nitems; from += BLOCK_SIZE) {
+            int to = Math.min(from + BLOCK_SIZE, nitems);
+            scorer.scoreRange(uvec, userOffset, from, to, scores);
+            for (int row = from; row < to; row++) {
+                double score = scores[row - from];
+                if (score > pass.threshold()) {
+                    long item = items.getKey(row);
+                    if (!exclude.contains(item)) {
+                        pass.offer(rerank ? row : item, score);
+                    }
+                }
+            }
+        }
+        if (rerank) {
+            for (int j = 0; j < pass.size(); j++) {
+                int row = (int) pass.getKey(j);
+                heap.offer(items.getKey(row), scorer.scoreRow(uvec, userOffset, row));
+            }
+        }
+    }
+
+    private void scoreCandidates(long user, LongSet candidates, LongSet exclude, TopNHeap heap) {
+        long[] ids = new long[candidates.size()];
+        double[] scores = new double[ids.length];
+        int count = scorer.scoreBatch(user, candidates, ids, scores);
+        for (int j = 0; j < count; j++) {
+            if (scores[j] > heap.threshold() && !exclude.contains(ids[j])) {
+                heap.offer(ids[j], scores[j]);
+            }
+        }
+    }
+
+    /**
+     * Get the items to exclude when none are specified: the items the user has rated.
+     * @param user The user ID.
+     * @return The user's rated items.
+     */
+    protected LongSet getDefaultExcludes(long user) {
+        return dao.query(Rating.class)
+                  .withAttribute(CommonAttributes.USER_ID, user)
+                  .valueSet(CommonAttributes.ITEM_ID);
+    }
+}
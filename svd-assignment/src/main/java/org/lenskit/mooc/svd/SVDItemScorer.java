@@ -1,54 +1,117 @@
 package org.lenskit.mooc.svd;
 
-import com.google.common.collect.Ordering;
-import it.unimi.dsi.fastutil.longs.LongSet;
-import org.apache.commons.math3.linear.DiagonalMatrix;
-import org.apache.commons.math3.linear.RealVector;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongCollection;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import org.lenskit.api.Result;
-import org.lenskit.api.ResultList;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
 import org.lenskit.bias.BiasModel;
 import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.ratings.Rating;
 import org.lenskit.results.BasicResult;
 import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.KeyIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * SVD-based item scorer.
+ *
+ * Users are scored with their trained vectors, unless they have been folded in since training
+ * (see {@link UserFoldIn}).  A user the model has never seen is folded in from their ratings in
+ * the DAO on first use, and {@link #addRating(Rating)} brings a user's vector up to date with a
+ * new rating without retraining.
+ *
+ * Scores blend the model's prediction with item popularity by the model's popularity weight,
+ * or by {@link ScoringPopularityWeight} if it is set.
  */
 public class SVDItemScorer extends AbstractItemScorer {
     private static final Logger logger = LoggerFactory.getLogger(SVDItemScorer.class);
     private final SVDModel model;
     private final BiasModel baseline;
     private final DataAccessObject dao;
+    private final SVDResultCache cache;
+    private final UserFoldIn foldIn;
+    private final double popularityWeight;
+    /**
+     * Per-item part of the score, by item row: the blended item bias and popularity.
+     */
+    private final double[] itemOffsets;
 
     /**
      * Construct an SVD item scorer using a model.
      * @param m The model to use when generating scores.
      * @param dao The data access object.
      * @param bias The baseline bias model (providing means).
+     * @param cache The cache of user vectors.
+     * @param foldIn The vectors of users folded in since training.
+     * @param popWeight The weight (in percent) given to item popularity, or negative to use the
+     *                  model's.
      */
     @Inject
     public SVDItemScorer(SVDModel m, DataAccessObject dao,
-                         BiasModel bias) {
+                         BiasModel bias, SVDResultCache cache,
+                         UserFoldIn foldIn,
+                         @ScoringPopularityWeight int popWeight) {
         model = m;
         baseline = bias;
         this.dao = dao;
+        this.cache = cache;
+        this.foldIn = foldIn;
+        popularityWeight = scoringPopularityWeight(model, popWeight);
+        itemOffsets = computeItemOffsets(model, baseline, popularityWeight);
+    }
+
+    /**
+     * Resolve the popularity weight to score with.
+     * @param model The SVD model.
+     * @param popWeight The configured weight in percent, or negative to use the model's.
+     * @return The popularity weight, as a fraction.
+     */
+    static double scoringPopularityWeight(SVDModel model, int popWeight) {
+        return popWeight >= 0 ? popWeight / 100.0 : model.getPopularityWeight();
+    }
+
+    /**
+     * Compute the per-item part of each item's score.
+     * @param model The SVD model.
+     * @param bias The baseline bias model.
+     * @param popWeight The popularity weight to score with.
+     * @return The blended item bias and popularity of each item, by item row.
+     */
+    static double[] computeItemOffsets(SVDModel model, BiasModel bias, double popWeight) {
+        KeyIndex items = model.getItemIndexMapping();
+        double[] offsets = new double[items.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = (1 - popWeight) * bias.getItemBias(items.getKey(i))
+                    + popWeight * model.getItemPopularityByRow(i);
+        }
+        return offsets;
     }
 
     public SVDModel getModel() {
         return model;
     }
 
+    /**
+     * Get the weight this scorer gives to item popularity.
+     * @return The popularity weight, as a fraction.
+     */
+    public double getPopularityWeight() {
+        return popularityWeight;
+    }
+
     /**
      * Score items in a vector. The key domain of the provided vector is the
      * items to score, and the score method sets the values for each item to
@@ -61,43 +124,160 @@ public class SVDItemScorer extends AbstractItemScorer {
     @Nonnull
     @Override
     public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items) {
-        RealVector userFeatures = model.getUserVector(user);
-        if (userFeatures == null) {
+        long[] ids = new long[items.size()];
+        double[] scores = new double[ids.length];
+        int n = scoreBatch(user, LongUtils.asLongCollection(items), ids, scores);
+        List<Result> results = new ArrayList<>(n);
+        for (int j = 0; j < n; j++) {
+            results.add(new BasicResult(ids[j], scores[j]));
+        }
+        return Results.newResultMap(results);
+    }
+
+    @Nonnull
+    @Override
+    public Map<Long, Double> score(long user, @Nonnull Collection<Long> items) {
+        long[] ids = new long[items.size()];
+        double[] scores = new double[ids.length];
+        int n = scoreBatch(user, LongUtils.asLongCollection(items), ids, scores);
+        Long2DoubleOpenHashMap map = new Long2DoubleOpenHashMap(n);
+        for (int j = 0; j < n; j++) {
+            map.put(ids[j], scores[j]);
+        }
+        return map;
+    }
+
+    /**
+     * Score a batch of items into primitive arrays.  The user vector is dotted with every
+     * candidate item's row in one pass, and the blended bias and popularity are added from
+     * precomputed per-item offsets, so no objects are allocated per item.
+     *
+     * @param user The user ID.
+     * @param items The items to score.
+     * @param ids The array to receive the IDs of the scored items (length at least {@code items.size()}).
+     * @param scores The array to receive the scores, parallel to {@code ids}.
+     * @return The number of items scored.  Items unknown to the model are skipped; if the user
+     * is unknown, nothing is scored.
+     */
+    public int scoreBatch(long user, LongCollection items, long[] ids, double[] scores) {
+        double[] uvec = getUserVector(user);
+        if (uvec == null) {
             logger.debug("unknown user {}", user);
-            return Results.newResultMap();
+            return 0;
         }
 
-        LongSet itemSet = LongUtils.asLongSet(items);
-        List<Result> results = new ArrayList<>();
-        // TODO Compute the predictions
-        // TODO Add the predicted offsets to the baseline score
-        // TODO Store the results in 'results'
-        //DiagonalMatrix featureDiagMatrix = new DiagonalMatrix(model.getFeatureWeights().toArray());
-        for(Long item : itemSet){
-            RealVector itemFeatures = model.getItemVector(item);
-//            double predictedVal = userFeatures.ebeMultiply(model.getFeatureWeights()).dotProduct(itemFeatures);
-            double predictedVal = userFeatures.dotProduct(itemFeatures);
-
-            //adding baseline
-            predictedVal+=(baseline.getIntercept() + baseline.getUserBias(user) + baseline.getItemBias(item));
-            double popBlendedRating = (1 - model.getPopularityWeight())*predictedVal + model.getPopularityWeight()*model.getItemPopularity(item);
-            results.add(new BasicResult(item, popBlendedRating));
+        KeyIndex itemIndex = model.getItemIndexMapping();
+        int[] rows = new int[items.size()];
+        int n = 0;
+        LongIterator iter = items.iterator();
+        while (iter.hasNext()) {
+            long item = iter.nextLong();
+            int row = itemIndex.tryGetIndex(item);
+            if (row >= 0) {
+                ids[n] = item;
+                rows[n] = row;
+                n++;
+            }
         }
-//        ResultList orderedList = getTopNResults(10, results);
-//        for(Result res : orderedList) {
-//            System.out.println("Item Id: " + res.getId() + " Rating: " + res.getScore() + " Popularity : " + model.getItemPopularity(res.getId()));
-//        }
-        return Results.newResultMap(results);
+
+        model.dotItemRows(uvec, rows, n, scores);
+        double scale = 1 - popularityWeight;
+        double userOffset = getUserOffset(user);
+        for (int j = 0; j < n; j++) {
+            scores[j] = scale * scores[j] + userOffset + itemOffsets[rows[j]];
+        }
+        return n;
     }
-    @Nonnull
-    private ResultList getTopNResults(int n, Iterable<Result> scores) {
-        Ordering<Result> ord = Results.scoreOrder();
-        List<Result> topN;
-        if (n < 0) {
-            topN = ord.reverse().immutableSortedCopy(scores);
-        } else {
-            topN = ord.greatestOf(scores, n);
+
+    /**
+     * Get the vector to score a user with: their folded-in vector if there is one, otherwise
+     * their trained vector, otherwise a vector folded in from their ratings.
+     * @param user The user ID.
+     * @return The user's weighted feature vector (which must not be modified), or {@code null}
+     * if the user is unknown to the model and has no ratings of known items.
+     */
+    @Nullable
+    double[] getUserVector(long user) {
+        double[] uvec = foldIn.getUserVector(user);
+        if (uvec == null) {
+            uvec = cache.getUserVector(user);
         }
-        return Results.newResultList(topN);
+        if (uvec == null) {
+            uvec = foldIn.foldIn(user, getUserRatings(user));
+        }
+        return uvec;
+    }
+
+    /**
+     * Update a user's vector with a new rating, against the fixed item factors.  A user who has
+     * not been folded in yet is first folded in from their ratings in the DAO.
+     * @param rating The new rating.
+     */
+    public void addRating(Rating rating) {
+        long user = rating.getUserId();
+        if (foldIn.addRating(user, rating.getItemId(), rating.getValue()) == null) {
+            List<Rating> ratings = new ArrayList<>(getUserRatings(user));
+            // the DAO may not have seen the new rating yet
+            ratings.removeIf(r -> r.getItemId() == rating.getItemId());
+            ratings.add(rating);
+            foldIn.foldIn(user, ratings);
+        }
+        cache.invalidateUser(user);
+    }
+
+    /**
+     * Fold a user in again from their current ratings in the DAO, replacing their trained or
+     * earlier folded-in vector.
+     * @param user The user ID.
+     */
+    public void refreshUser(long user) {
+        foldIn.invalidate(user);
+        foldIn.foldIn(user, getUserRatings(user));
+        cache.invalidateUser(user);
+    }
+
+    private List<Rating> getUserRatings(long user) {
+        return dao.query(Rating.class)
+                  .withAttribute(CommonAttributes.USER_ID, user)
+                  .get();
+    }
+
+    /**
+     * Score a range of consecutive item rows.  With quantized factors the scores are approximate
+     * (see {@link SVDModel#hasApproximateRangeScores()}).
+     * @param uvec The user's weighted feature vector.
+     * @param userOffset The user's part of the score, from {@link #getUserOffset(long)}.
+     * @param from The first item row.
+     * @param to The end of the row range (exclusive).
+     * @param scores The array to receive the scores ({@code scores[j]} for row {@code from + j}).
+     */
+    void scoreRange(double[] uvec, double userOffset, int from, int to, double[] scores) {
+        model.dotItemRange(uvec, from, to, scores);
+        double scale = 1 - popularityWeight;
+        for (int row = from; row < to; row++) {
+            int j = row - from;
+            scores[j] = scale * scores[j] + userOffset + itemOffsets[row];
+        }
+    }
+
+    /**
+     * Score one item row at the full precision of the model.
+     * @param uvec The user's weighted feature vector.
+     * @param userOffset The user's part of the score, from {@link #getUserOffset(long)}.
+     * @param row The item row.
+     * @return The item's score.
+     */
+    double scoreRow(double[] uvec, double userOffset, int row) {
+        double scale = 1 - popularityWeight;
+        return scale * model.dotItemRow(uvec, row) + userOffset + itemOffsets[row];
+    }
+
+    /**
+     * Get the part of a user's scores that does not depend on the item.
+     * @param user The user ID.
+     * @return The blended intercept and user bias.
+     */
+    double getUserOffset(long user) {
+        return (1 - popularityWeight) * (baseline.getIntercept() + baseline.getUserBias(user));
     }
 }
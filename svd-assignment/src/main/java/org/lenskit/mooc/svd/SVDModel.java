@@ -1,6 +1,7 @@
 package org.lenskit.mooc.svd;
 
 import com.google.common.base.Preconditions;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.grouplens.grapht.annotation.DefaultProvider;
@@ -9,7 +10,8 @@ import org.lenskit.util.keys.KeyIndex;
 
 import javax.annotation.Nullable;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * SVD model for collaborative filtering.
@@ -18,12 +20,53 @@ import java.util.HashMap;
 @DefaultProvider(SVDModelBuilder.class)
 public class SVDModel implements Serializable {
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Storage formats for the feature matrices.
+     */
+    public enum Storage {
+        /** Double-precision commons-math matrices. */
+        DOUBLE,
+        /** Single-precision floats (half the memory). */
+        FLOAT,
+        /** 8-bit integers with a scale per row (an eighth of the memory). */
+        INT8;
+
+        /**
+         * Look up a storage format by its configuration name.
+         * @param name The format name.
+         * @return The storage format.
+         * @throws IllegalArgumentException if there is no such format.
+         */
+        public static Storage fromName(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+
+        /**
+         * Convert a feature matrix to this storage format.
+         * @param matrix The matrix.
+         * @return The matrix in this format.
+         */
+        public RealMatrix apply(RealMatrix matrix) {
+            switch (this) {
+            case FLOAT:
+                return FloatFactorMatrix.of(matrix);
+            case INT8:
+                return QuantizedFactorMatrix.quantize(matrix);
+            default:
+                return matrix;
+            }
+        }
+    }
     private final KeyIndex userMapping;
     private final KeyIndex itemMapping;
     private final RealMatrix userFeatureMatrix;
     private final RealMatrix itemFeatureMatrix;
     private final RealVector featureWeights;
-    private final HashMap<Long, Double> itemPopularity;
+    /**
+     * Normalized item popularity, indexed by item row.
+     */
+    private final double[] itemPopularity;
     private final double popularityWeight;
 
     /**
@@ -34,9 +77,21 @@ public class SVDModel implements Serializable {
      * @param umat The user feature matrix (users x features).
      * @param imat The item feature matrix (items x features).
      * @param weights The singular values.
-     * @param itemPopularity1
+     * @param itemPopularity1 The normalized popularity of each item ID.
+     * @param popWeight The weight given to item popularity when scoring.
+     */
+    SVDModel(KeyIndex umap, KeyIndex imap, RealMatrix umat, RealMatrix imat, RealVector weights, Map<Long, Double> itemPopularity1, double popWeight) {
+        this(umap, imap, umat, imat, weights, popularityArray(imap, itemPopularity1), popWeight);
+    }
+
+    /**
+     * Construct an SVD model with popularity already laid out by item row.
+     * @param itemPop The normalized popularity of each item, indexed by row in {@code imap}.
+     * @see #SVDModel(KeyIndex, KeyIndex, RealMatrix, RealMatrix, RealVector, Map, double)
      */
-    SVDModel(KeyIndex umap, KeyIndex imap, RealMatrix umat, RealMatrix imat, RealVector weights, HashMap<Long, Double> itemPopularity1, double popWeight) {
+    SVDModel(KeyIndex umap, KeyIndex imap, RealMatrix umat, RealMatrix imat, RealVector weights, double[] itemPop, double popWeight) {
+        Preconditions.checkArgument(itemPop.length == imap.size(),
+                "popularity has incorrect length (%s != %s)", itemPop.length, imap.size());
 //        Preconditions.checkArgument(umat.getColumnDimension() == weights.getDimension(),
 //                "user matrix has incorrect column dimension (%s != %s)",
 //                umat.getColumnDimension(), weights.getDimension());
@@ -48,10 +103,19 @@ public class SVDModel implements Serializable {
         userFeatureMatrix = umat;
         itemFeatureMatrix = imat;
         featureWeights = weights;
-        itemPopularity = itemPopularity1;
+        itemPopularity = itemPop;
         popularityWeight = popWeight;
     }
 
+    private static double[] popularityArray(KeyIndex imap, Map<Long, Double> popularity) {
+        double[] pop = new double[imap.size()];
+        for (int i = 0; i < pop.length; i++) {
+            Double p = popularity.get(imap.getKey(i));
+            pop[i] = p == null ? 0.0 : p;
+        }
+        return pop;
+    }
+
     /**
      * Get the feature weights.  This is a diagonal matrix.
      * @return The diagonal matrix of feature weights.
@@ -61,14 +125,145 @@ public class SVDModel implements Serializable {
     }
 
     public Double getItemPopularity(Long itemID){
-        Double pop = itemPopularity.get(itemID);
-        if(pop == null)
-            pop = 0.0;
-        return pop;
+        return getItemPopularity(itemID.longValue());
+    }
+
+    /**
+     * Get the normalized popularity of an item.
+     * @param item The item ID.
+     * @return The item's popularity, or 0 if the item is unknown.
+     */
+    public double getItemPopularity(long item){
+        int row = itemMapping.tryGetIndex(item);
+        return row >= 0 ? itemPopularity[row] : 0.0;
+    }
+
+    /**
+     * Get the normalized popularity of an item by row number.
+     * @param row The item's row in the item-feature matrix.
+     * @return The item's popularity.
+     */
+    public double getItemPopularityByRow(int row){
+        return itemPopularity[row];
     }
 
     public double getPopularityWeight(){ return popularityWeight;}
 
+    /**
+     * Get the number of latent features.
+     * @return The feature count.
+     */
+    public int getFeatureCount() {
+        return featureWeights.getDimension();
+    }
+
+    /**
+     * Copy a user's feature vector, scaled by the feature weights, into an array.  Dotting the
+     * result with an item's feature vector gives the item's predicted offset.
+     * @param user The user ID.
+     * @param out The array to fill (length at least {@link #getFeatureCount()}).
+     * @return {@code true} if the user is known; if not, {@code out} is untouched.
+     */
+    public boolean getWeightedUserFeatures(long user, double[] out) {
+        int row = userMapping.tryGetIndex(user);
+        if (row < 0) {
+            return false;
+        }
+        final int k = getFeatureCount();
+        for (int f = 0; f < k; f++) {
+            out[f] = userFeatureMatrix.getEntry(row, f) * featureWeights.getEntry(f);
+        }
+        return true;
+    }
+
+    /**
+     * Compute the dot product of a (weighted) user vector with a batch of item rows.
+     * @param uvec The user vector, from {@link #getWeightedUserFeatures(long, double[])}.
+     * @param rows The item rows to score.
+     * @param n The number of rows to score.
+     * @param out The array to receive the dot products ({@code out[j]} for {@code rows[j]}).
+     */
+    public void dotItemRows(double[] uvec, int[] rows, int n, double[] out) {
+        for (int j = 0; j < n; j++) {
+            out[j] = dotItemRow(uvec, rows[j]);
+        }
+    }
+
+    /**
+     * Compute the dot product of a (weighted) user vector with a range of consecutive item rows.
+     * With {@linkplain Storage#INT8 quantized} factors, the products are computed approximately,
+     * in integer arithmetic; see {@link #hasApproximateRangeScores()}.
+     * @param uvec The user vector, from {@link #getWeightedUserFeatures(long, double[])}.
+     * @param from The first row to score.
+     * @param to The end of the range (exclusive).
+     * @param out The array to receive the dot products ({@code out[j]} for row {@code from + j}).
+     */
+    public void dotItemRange(double[] uvec, int from, int to, double[] out) {
+        if (itemFeatureMatrix instanceof QuantizedFactorMatrix) {
+            ((QuantizedFactorMatrix) itemFeatureMatrix).approxDotRange(uvec, from, to, out);
+            return;
+        }
+        for (int row = from; row < to; row++) {
+            out[row - from] = dotItemRow(uvec, row);
+        }
+    }
+
+    /**
+     * Query whether {@link #dotItemRange(double[], int, int, double[])} is approximate, so that
+     * its best results should be rescored with {@link #dotItemRow(double[], int)}.
+     * @return {@code true} if range scores are approximate.
+     */
+    public boolean hasApproximateRangeScores() {
+        return itemFeatureMatrix instanceof QuantizedFactorMatrix;
+    }
+
+    /**
+     * Compute the dot product of a (weighted) user vector with one item row, at the full
+     * precision of the stored factors.
+     * @param uvec The user vector.
+     * @param row The item row.
+     * @return The dot product.
+     */
+    public double dotItemRow(double[] uvec, int row) {
+        if (itemFeatureMatrix instanceof Array2DRowRealMatrix) {
+            double[] ivec = ((Array2DRowRealMatrix) itemFeatureMatrix).getDataRef()[row];
+            return FactorKernels.get().dot(uvec, 0, ivec, 0, ivec.length);
+        } else if (itemFeatureMatrix instanceof CompactFactorMatrix) {
+            return ((CompactFactorMatrix) itemFeatureMatrix).dotRow(row, uvec);
+        } else {
+            final int k = getFeatureCount();
+            double dot = 0;
+            for (int f = 0; f < k; f++) {
+                dot += uvec[f] * itemFeatureMatrix.getEntry(row, f);
+            }
+            return dot;
+        }
+    }
+
+    /**
+     * Copy an item's feature vector into an array.
+     * @param item The item ID.
+     * @param out The array to fill.
+     * @param offset The position in {@code out} at which to store the vector.
+     * @return {@code true} if the item is known; if not, {@code out} is untouched.
+     */
+    public boolean getItemFeatures(long item, double[] out, int offset) {
+        int row = itemMapping.tryGetIndex(item);
+        if (row < 0) {
+            return false;
+        }
+        final int k = getFeatureCount();
+        if (itemFeatureMatrix instanceof Array2DRowRealMatrix) {
+            double[] ivec = ((Array2DRowRealMatrix) itemFeatureMatrix).getDataRef()[row];
+            System.arraycopy(ivec, 0, out, offset, k);
+        } else {
+            for (int f = 0; f < k; f++) {
+                out[offset + f] = itemFeatureMatrix.getEntry(row, f);
+            }
+        }
+        return true;
+    }
+
     /**
      * Get a user feature vector. This is a row vector whose values (columns) are the feature
      * values for a particular user.
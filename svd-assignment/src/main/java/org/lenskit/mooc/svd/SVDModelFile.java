@@ -0,0 +1,264 @@
+package org.lenskit.mooc.svd;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.LenskitRecommenderEngine;
+import org.lenskit.LenskitRecommenderEngineBuilder;
+import org.lenskit.config.ConfigHelpers;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.util.keys.FrozenHashKeyIndex;
+import org.lenskit.util.keys.KeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes the compact binary SVD model format.  Unlike a serialized {@link SVDModel},
+ * a model file is opened by memory-mapping it: the factor matrices are read straight out of
+ * the page cache, so loading takes time independent of the model size, and every JVM on a host
+ * that maps the same file shares one copy of it.
+ *
+ * The file is little-endian, with every section starting on an 8-byte boundary:
+ *
+ * <ol>
+ * <li>a 32-byte header: magic number {@code SVDM}, format version, feature count, user count,
+ * item count, a reserved int, and the popularity weight (a double);</li>
+ * <li>the feature weights (feature count doubles);</li>
+ * <li>the user IDs and then the item IDs (longs, in row order);</li>
+ * <li>the item popularities (item count doubles, in row order);</li>
+ * <li>the user feature matrix and then the item feature matrix (floats, row-major), each
+ * padded to a multiple of 8 bytes.</li>
+ * </ol>
+ *
+ * Factors are stored in single precision, which halves the file and the mapped footprint; the
+ * rounding error is far below the error of the factorization itself.
+ */
+public final class SVDModelFile {
+    private static final Logger logger = LoggerFactory.getLogger(SVDModelFile.class);
+    static final int MAGIC = 0x5356444D;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private SVDModelFile() {}
+
+    /**
+     * Write a model to a file.  The model is written to a temporary file that then replaces the
+     * output, so processes that have the old model mapped (or a build warm-starting from it)
+     * never see a partly written file.
+     * @param model The model to write.
+     * @param file The output file (replaced if it exists).
+     * @throws IOException if there is an error writing the file.
+     */
+    public static void write(SVDModel model, Path file) throws IOException {
+        KeyIndex users = model.getUserIndexMapping();
+        KeyIndex items = model.getItemIndexMapping();
+        RealMatrix umat = model.getUserFeatureMatrix();
+        RealMatrix imat = model.getItemFeatureMatrix();
+        RealVector weights = model.getFeatureWeights();
+        final int k = weights.getDimension();
+        Preconditions.checkArgument(umat.getColumnDimension() == k && imat.getColumnDimension() == k,
+                                    "feature matrices do not match the %s feature weights", k);
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(k);
+            out.putInt(users.size());
+            out.putInt(items.size());
+            out.putInt(0);
+            out.putDouble(model.getPopularityWeight());
+            for (int f = 0; f < k; f++) {
+                out.putDouble(weights.getEntry(f));
+            }
+            for (int u = 0; u < users.size(); u++) {
+                out.putLong(users.getKey(u));
+            }
+            for (int i = 0; i < items.size(); i++) {
+                out.putLong(items.getKey(i));
+            }
+            for (int i = 0; i < items.size(); i++) {
+                out.putDouble(model.getItemPopularityByRow(i));
+            }
+            writeFactors(out, umat, users.size(), k);
+            writeFactors(out, imat, items.size(), k);
+            out.flush();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("wrote {} x {} + {} x {} model to {}", users.size(), k, items.size(), k, file);
+    }
+
+    private static void writeFactors(Output out, RealMatrix matrix, int rows, int k) throws IOException {
+        for (int r = 0; r < rows; r++) {
+            for (int f = 0; f < k; f++) {
+                out.putFloat((float) matrix.getEntry(r, f));
+            }
+        }
+        if (((long) rows * k) % 2 != 0) {
+            out.putFloat(0);
+        }
+    }
+
+    /**
+     * Open a model file by memory-mapping it.  The factor matrices of the resulting model read
+     * from the mapping and are read-only.
+     * @param file The model file.
+     * @return The model.
+     * @throws IOException if there is an error reading the file, or it is not a model file.
+     */
+    public static SVDModel map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(file + ": not an SVD model file");
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IOException(file + ": unsupported model version " + version);
+            }
+            final int k = header.getInt(8);
+            final int nusers = header.getInt(12);
+            final int nitems = header.getInt(16);
+            final double popWeight = header.getDouble(24);
+
+            long metaSize = 8L * (k + nusers + nitems + nitems);
+            ByteBuffer meta = map(channel, HEADER_SIZE, metaSize);
+            double[] weights = new double[k];
+            for (int f = 0; f < k; f++) {
+                weights[f] = meta.getDouble();
+            }
+            LongList userIds = new LongArrayList(nusers);
+            for (int u = 0; u < nusers; u++) {
+                userIds.add(meta.getLong());
+            }
+            LongList itemIds = new LongArrayList(nitems);
+            for (int i = 0; i < nitems; i++) {
+                itemIds.add(meta.getLong());
+            }
+            double[] popularity = new double[nitems];
+            for (int i = 0; i < nitems; i++) {
+                popularity[i] = meta.getDouble();
+            }
+
+            long userStart = HEADER_SIZE + metaSize;
+            long userSize = factorBlockSize(nusers, k);
+            FloatBuffer userBuf = map(channel, userStart, userSize).asFloatBuffer();
+            FloatBuffer itemBuf = map(channel, userStart + userSize, factorBlockSize(nitems, k)).asFloatBuffer();
+
+            logger.info("mapped {} x {} + {} x {} model from {}", nusers, k, nitems, k, file);
+            return new SVDModel(FrozenHashKeyIndex.create(userIds), FrozenHashKeyIndex.create(itemIds),
+                                new MappedFactorMatrix(userBuf, nusers, k),
+                                new MappedFactorMatrix(itemBuf, nitems, k),
+                                new ArrayRealVector(weights, false), popularity, popWeight);
+        }
+    }
+
+    private static long factorBlockSize(int rows, int k) {
+        long floats = (long) rows * k;
+        return 4 * (floats + floats % 2);
+    }
+
+    static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("model section of " + size + " bytes is too large to map");
+        }
+        if (position + size > channel.size()) {
+            throw new IOException("model file is truncated");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size)
+                      .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Buffered little-endian writer over a channel.
+     */
+    static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel chan) {
+            channel = chan;
+        }
+
+        private void reserve(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                flush();
+            }
+        }
+
+        void putInt(int v) throws IOException {
+            reserve(4);
+            buffer.putInt(v);
+        }
+
+        void putFloat(float v) throws IOException {
+            reserve(4);
+            buffer.putFloat(v);
+        }
+
+        void putLong(long v) throws IOException {
+            reserve(8);
+            buffer.putLong(v);
+        }
+
+        void putDouble(double v) throws IOException {
+            reserve(8);
+            buffer.putDouble(v);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Train a model and export it in the binary format.
+     *
+     * Usage: {@code SVDModelFile <data.yml> <output> <config.groovy>...}
+     *
+     * @param args The command-line arguments.
+     * @throws Exception if the model cannot be built or written.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("usage: SVDModelFile DATA.yml OUTPUT CONFIG.groovy...");
+            System.exit(2);
+        }
+        DataAccessObject dao = RatingCacheFile.load(Paths.get(args[0])).get();
+        LenskitRecommenderEngineBuilder builder = LenskitRecommenderEngine.newBuilder();
+        for (int i = 2; i < args.length; i++) {
+            LenskitConfiguration config = ConfigHelpers.load(new File(args[i]));
+            builder.addConfiguration(config);
+        }
+        LenskitRecommenderEngine engine = builder.build(dao);
+        try (LenskitRecommender rec = engine.createRecommender(dao)) {
+            SVDModel model = rec.get(SVDModel.class);
+            write(model, Paths.get(args[1]));
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.lenskit.mooc.svd;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.lenskit.api.ResultList;
+import org.lenskit.inject.Shareable;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, concurrent caches of weighted user vectors and top-N lists, shared by every
+ * recommender built from one model.  Entries are evicted least-recently-used once a cache is
+ * full, and expire a fixed time after they are computed.
+ *
+ * The cache depends on the {@link SVDModel}, so building or loading a new model creates a new,
+ * empty cache; nothing computed from an old model can be returned for a new one.  It also
+ * depends on the {@link ScoringPopularityWeight}, so recommenders that share a model but blend
+ * popularity differently do not share top-N lists.
+ */
+@Shareable
+public class SVDResultCache implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final SVDModel model;
+    private final int maxSize;
+    private final int expirySeconds;
+    private final int popularityWeight;
+    private final transient Cache<Long, double[]> userVectors;
+    private final transient Cache<TopNKey, ResultList> topN;
+
+    /**
+     * Construct a result cache.
+     * @param model The model whose results are cached.
+     * @param size The maximum number of entries in each cache (0 to disable caching).
+     * @param expiry The lifetime of an entry in seconds (0 for no expiry).
+     * @param popWeight The popularity weight (in percent) of the scores in the cached lists.
+     */
+    @Inject
+    public SVDResultCache(SVDModel model, @ResultCacheSize int size, @ResultCacheExpiry int expiry,
+                          @ScoringPopularityWeight int popWeight) {
+        this.model = model;
+        maxSize = size;
+        expirySeconds = expiry;
+        popularityWeight = popWeight;
+        userVectors = this.<Long, double[]>newBuilder().build();
+        topN = this.<TopNKey, ResultList>newBuilder().build();
+    }
+
+    /**
+     * Create a cache that caches nothing.
+     * @param model The model.
+     * @return A disabled cache.
+     */
+    static SVDResultCache disabled(SVDModel model) {
+        return new SVDResultCache(model, 0, 0, -1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <K, V> CacheBuilder<K, V> newBuilder() {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                                                           .maximumSize(maxSize)
+                                                           .recordStats();
+        if (expirySeconds > 0) {
+            builder.expireAfterWrite(expirySeconds, TimeUnit.SECONDS);
+        }
+        return (CacheBuilder<K, V>) builder;
+    }
+
+    /**
+     * Query whether caching is enabled.
+     * @return {@code true} if results are cached.
+     */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Get a user's weighted feature vector, computing and caching it on a miss.
+     * @param user The user ID.
+     * @return The user's weighted feature vector (which must not be modified), or {@code null}
+     * if the user is unknown.
+     */
+    @Nullable
+    public double[] getUserVector(long user) {
+        double[] vec = isEnabled() ? userVectors.getIfPresent(user) : null;
+        if (vec == null) {
+            vec = new double[model.getFeatureCount()];
+            if (!model.getWeightedUserFeatures(user, vec)) {
+                return null;
+            }
+            if (isEnabled()) {
+                userVectors.put(user, vec);
+            }
+        }
+        return vec;
+    }
+
+    /**
+     * Look up a cached top-N list.
+     * @param user The user ID.
+     * @param n The list length requested.
+     * @param exclude The exclude set.
+     * @return The cached list, or {@code null} if there is none.
+     */
+    @Nullable
+    public ResultList getTopN(long user, int n, LongSet exclude) {
+        return isEnabled() ? topN.getIfPresent(new TopNKey(user, n, exclude)) : null;
+    }
+
+    /**
+     * Cache a top-N list.
+     * @param user The user ID.
+     * @param n The list length requested.
+     * @param exclude The exclude set.
+     * @param results The list (must be immutable).
+     */
+    public void putTopN(long user, int n, LongSet exclude, ResultList results) {
+        if (isEnabled()) {
+            // the key keeps its own copy, so later changes to the caller's set cannot alter it
+            topN.put(new TopNKey(user, n, new LongOpenHashSet(exclude)), results);
+        }
+    }
+
+    /**
+     * Discard a user's cached vector and top-N lists, after their ratings have changed.
+     * @param user The user ID.
+     */
+    public void invalidateUser(long user) {
+        userVectors.invalidate(user);
+        topN.asMap().keySet().removeIf(key -> key.user == user);
+    }
+
+    /**
+     * Discard all cached entries.
+     */
+    public void invalidateAll() {
+        userVectors.invalidateAll();
+        topN.invalidateAll();
+    }
+
+    /**
+     * Get the hit, miss and eviction counts of the user vector cache.
+     * @return The user vector cache statistics.
+     */
+    public CacheStats getUserVectorStats() {
+        return userVectors.stats();
+    }
+
+    /**
+     * Get the hit, miss and eviction counts of the top-N cache.
+     * @return The top-N cache statistics.
+     */
+    public CacheStats getTopNStats() {
+        return topN.stats();
+    }
+
+    /**
+     * The cache contents are not serialized; a deserialized cache starts empty.
+     */
+    private Object readResolve() {
+        return new SVDResultCache(model, maxSize, expirySeconds, popularityWeight);
+    }
+
+    /**
+     * Key of a top-N list.  Keys compare their exclude sets in full; the hash of the set is only
+     * used for bucketing, since different sets can share a size and hash.
+     */
+    private static final class TopNKey {
+        private final long user;
+        private final int n;
+        private final LongSet exclude;
+        private final int excludeHash;
+
+        /**
+         * Construct a key.
+         * @param exclude The exclude set; a key stored in the cache must own an unshared copy.
+         */
+        TopNKey(long user, int n, LongSet exclude) {
+            this.user = user;
+            this.n = n;
+            this.exclude = exclude;
+            excludeHash = exclude.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TopNKey)) {
+                return false;
+            }
+            TopNKey other = (TopNKey) o;
+            return user == other.user && n == other.n
+                    && excludeHash == other.excludeHash && exclude.equals(other.exclude);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = Long.hashCode(user);
+            h = 31 * h + n;
+            return 31 * h + excludeHash;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the weight, in percent, given to item popularity when scoring, in place
+ * of the {@link PopularityWeight} the model was trained with (negative to use the model's).
+ * The blend is applied at score time, so algorithms that train with the same parameters and
+ * differ only in this weight share one model.
+ */
+@Documented
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(-1)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ScoringPopularityWeight {
+}
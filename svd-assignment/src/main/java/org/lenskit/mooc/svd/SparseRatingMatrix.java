@@ -0,0 +1,236 @@
+package org.lenskit.mooc.svd;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Sparse storage of the normalized rating matrix, in compressed sparse row layout.  Only the
+ * observed (user, item, residual) cells are stored, so memory use is proportional to the number
+ * of ratings rather than to users &times; items.
+ *
+ * Entries are sorted by user index; the entries for user {@code u} occupy positions
+ * {@link #getUserStart(int) getUserStart(u)} (inclusive) to {@link #getUserEnd(int) getUserEnd(u)}
+ * (exclusive).  A column index gives the same access by item: the positions of item {@code i}'s
+ * entries are {@link #getItemEntry(int) getItemEntry(k)} for {@code k} from
+ * {@link #getItemStart(int) getItemStart(i)} to {@link #getItemEnd(int) getItemEnd(i)}.
+ */
+public class SparseRatingMatrix {
+    private final int userCount;
+    private final int itemCount;
+    private final int[] userOffsets;
+    private final int[] users;
+    private final int[] items;
+    private final double[] values;
+    private final int[] itemOffsets;
+    private final int[] itemEntries;
+
+    private SparseRatingMatrix(int nusers, int nitems, int[] offsets, int[] users, int[] items, double[] values) {
+        userCount = nusers;
+        itemCount = nitems;
+        userOffsets = offsets;
+        this.users = users;
+        this.items = items;
+        this.values = values;
+
+        // column index: counting sort of the entry positions by item
+        itemOffsets = new int[nitems + 1];
+        for (int item: items) {
+            itemOffsets[item + 1] += 1;
+        }
+        for (int i = 0; i < nitems; i++) {
+            itemOffsets[i + 1] += itemOffsets[i];
+        }
+        int[] fill = Arrays.copyOf(itemOffsets, nitems);
+        itemEntries = new int[items.length];
+        for (int pos = 0; pos < items.length; pos++) {
+            itemEntries[fill[items[pos]]++] = pos;
+        }
+    }
+
+    /**
+     * Wrap cells that are already in row order.
+     * @param nusers The number of users (rows).
+     * @param nitems The number of items (columns).
+     * @param offsets The start of each user's cells, plus the total cell count.
+     * @param users The user index of each cell.
+     * @param items The item index of each cell.
+     * @param values The value of each cell.
+     * @return The sparse rating matrix, sharing the arrays.
+     */
+    static SparseRatingMatrix wrap(int nusers, int nitems, int[] offsets, int[] users, int[] items, double[] values) {
+        Preconditions.checkArgument(offsets.length == nusers + 1, "offsets have incorrect length");
+        Preconditions.checkArgument(offsets[nusers] == values.length, "offsets do not match values");
+        return new SparseRatingMatrix(nusers, nitems, offsets, users, items, values);
+    }
+
+    /**
+     * Create a builder for a sparse rating matrix.
+     * @param nusers The number of users (rows).
+     * @param nitems The number of items (columns).
+     * @return A new builder.
+     */
+    public static Builder newBuilder(int nusers, int nitems) {
+        return new Builder(nusers, nitems);
+    }
+
+    /**
+     * Get the number of users (rows) in the matrix.
+     * @return The number of users.
+     */
+    public int getUserCount() {
+        return userCount;
+    }
+
+    /**
+     * Get the number of items (columns) in the matrix.
+     * @return The number of items.
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Get the number of stored ratings.
+     * @return The number of non-empty cells.
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Get the position of a user's first entry.
+     * @param user The user index.
+     * @return The position of the user's first entry.
+     */
+    public int getUserStart(int user) {
+        return userOffsets[user];
+    }
+
+    /**
+     * Get the position after a user's last entry.
+     * @param user The user index.
+     * @return The position one past the user's last entry.
+     */
+    public int getUserEnd(int user) {
+        return userOffsets[user + 1];
+    }
+
+    /**
+     * Get the start of an item's range in the column index.
+     * @param item The item index.
+     * @return The column index position of the item's first entry.
+     */
+    public int getItemStart(int item) {
+        return itemOffsets[item];
+    }
+
+    /**
+     * Get the end of an item's range in the column index.
+     * @param item The item index.
+     * @return The column index position one past the item's last entry.
+     */
+    public int getItemEnd(int item) {
+        return itemOffsets[item + 1];
+    }
+
+    /**
+     * Look up an entry through the column index.
+     * @param k The column index position.
+     * @return The entry position, for use with {@link #getUser(int)} and friends.
+     */
+    public int getItemEntry(int k) {
+        return itemEntries[k];
+    }
+
+    /**
+     * Get the user index of an entry.
+     * @param pos The entry position.
+     * @return The row (user index) of the entry.
+     */
+    public int getUser(int pos) {
+        return users[pos];
+    }
+
+    /**
+     * Get the item index of an entry.
+     * @param pos The entry position.
+     * @return The column (item index) of the entry.
+     */
+    public int getItem(int pos) {
+        return items[pos];
+    }
+
+    /**
+     * Get the normalized rating value of an entry.
+     * @param pos The entry position.
+     * @return The residual stored in the entry.
+     */
+    public double getValue(int pos) {
+        return values[pos];
+    }
+
+    /**
+     * Builder that accumulates rating cells in arbitrary order and packs them into row order.
+     */
+    public static class Builder {
+        private final int userCount;
+        private final int itemCount;
+        private final IntArrayList users = new IntArrayList();
+        private final IntArrayList items = new IntArrayList();
+        private final DoubleArrayList values = new DoubleArrayList();
+
+        private Builder(int nusers, int nitems) {
+            userCount = nusers;
+            itemCount = nitems;
+        }
+
+        /**
+         * Add a cell to the matrix.
+         * @param user The user index.
+         * @param item The item index.
+         * @param value The (normalized) rating value.
+         * @return The builder (for chaining).
+         */
+        public Builder add(int user, int item, double value) {
+            Preconditions.checkElementIndex(user, userCount, "user index");
+            Preconditions.checkElementIndex(item, itemCount, "item index");
+            users.add(user);
+            items.add(item);
+            values.add(value);
+            return this;
+        }
+
+        /**
+         * Pack the accumulated cells into a matrix.
+         * @return The sparse rating matrix.
+         */
+        public SparseRatingMatrix build() {
+            final int n = values.size();
+            // counting sort of the cells by user
+            int[] offsets = new int[userCount + 1];
+            for (int k = 0; k < n; k++) {
+                offsets[users.getInt(k) + 1] += 1;
+            }
+            for (int u = 0; u < userCount; u++) {
+                offsets[u + 1] += offsets[u];
+            }
+            int[] fill = new int[userCount];
+            System.arraycopy(offsets, 0, fill, 0, userCount);
+
+            int[] us = new int[n];
+            int[] is = new int[n];
+            double[] vs = new double[n];
+            for (int k = 0; k < n; k++) {
+                int u = users.getInt(k);
+                int pos = fill[u]++;
+                us[pos] = u;
+                is[pos] = items.getInt(k);
+                vs[pos] = values.getDouble(k);
+            }
+            return new SparseRatingMatrix(userCount, itemCount, offsets, us, is, vs);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.lenskit.mooc.svd;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Bounded min-heap of (key, score) pairs in primitive arrays, keeping the {@code n} highest
+ * scores offered to it.  Offering a score costs O(log n) at worst and O(1) once the heap is full
+ * and the score does not beat the current minimum, so a whole catalogue can be streamed through
+ * it in constant memory.
+ */
+final class TopNHeap {
+    private final long[] keys;
+    private final double[] scores;
+    private int size;
+
+    /**
+     * Create a heap.
+     * @param n The number of entries to keep.
+     */
+    TopNHeap(int n) {
+        Preconditions.checkArgument(n >= 0, "negative heap size");
+        keys = new long[n];
+        scores = new double[n];
+    }
+
+    /**
+     * Get the number of entries in the heap.
+     * @return The number of entries.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of entries the heap keeps.
+     * @return The heap capacity.
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Empty the heap for reuse.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Offer an entry to the heap.
+     * @param key The entry's key (an item ID or row).
+     * @param score The entry's score.
+     * @return {@code true} if the entry was kept.
+     */
+    boolean offer(long key, double score) {
+        if (size < keys.length) {
+            int pos = size++;
+            // sift up
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+                if (scores[parent] <= score) {
+                    break;
+                }
+                keys[pos] = keys[parent];
+                scores[pos] = scores[parent];
+                pos = parent;
+            }
+            keys[pos] = key;
+            scores[pos] = score;
+            return true;
+        } else if (size > 0 && score > scores[0]) {
+            siftDown(0, key, score, size);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Get the lowest score in the heap.
+     * @return The minimum score, or negative infinity if the heap is not yet full (so that any
+     * score would be kept).  A heap of size 0 keeps nothing, so its threshold is infinite.
+     */
+    double threshold() {
+        if (keys.length == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return size < keys.length ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    private void siftDown(int pos, long key, double score, int end) {
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= end) {
+                break;
+            }
+            if (child + 1 < end && scores[child + 1] < scores[child]) {
+                child += 1;
+            }
+            if (scores[child] >= score) {
+                break;
+            }
+            keys[pos] = keys[child];
+            scores[pos] = scores[child];
+            pos = child;
+        }
+        keys[pos] = key;
+        scores[pos] = score;
+    }
+
+    /**
+     * Sort the entries in place into decreasing order of score.  After this, the heap must be
+     * {@linkplain #clear() cleared} before it is offered more entries.
+     * @return The number of entries; {@link #getKey(int)} and {@link #getScore(int)} then give
+     * them from best to worst.
+     */
+    int sortDescending() {
+        // heap sort: repeatedly move the minimum to the end
+        for (int end = size - 1; end > 0; end--) {
+            long key = keys[end];
+            double score = scores[end];
+            keys[end] = keys[0];
+            scores[end] = scores[0];
+            siftDown(0, key, score, end);
+        }
+        return size;
+    }
+
+    long getKey(int i) {
+        return keys[i];
+    }
+
+    double getScore(int i) {
+        return scores[i];
+    }
+}
@@ -0,0 +1,127 @@
+package org.lenskit.mooc.svd;
+
+import com.google.common.base.Preconditions;
+
+import javax.inject.Inject;
+import java.util.Locale;
+
+/**
+ * Hyperparameters for training the factorization: learning rate and its schedule,
+ * regularization, the epoch cap and early stopping.
+ */
+public class TrainingConfig {
+    /**
+     * Learning-rate schedules.
+     */
+    public enum Schedule {
+        CONSTANT, BOLD_DRIVER, ADAGRAD;
+
+        /**
+         * Look up a schedule by its configuration name (e.g. {@code bold-driver}).
+         * @param name The schedule name.
+         * @return The schedule.
+         * @throws IllegalArgumentException if there is no such schedule.
+         */
+        public static Schedule fromName(String name) {
+            return valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final double learningRate;
+    private final double regularization;
+    private final int maxEpochs;
+    private final int minEpochs;
+    private final int patience;
+    private final double validationFraction;
+    private final Schedule schedule;
+
+    /**
+     * Construct a training configuration.
+     * @param lrate The (initial) SGD learning rate.
+     * @param reg The regularization term.
+     * @param epochs The maximum number of epochs.
+     * @param minEpochs The number of epochs to run before early stopping may apply.
+     * @param patience The number of epochs without improvement before stopping (0 to never stop
+     *                 early).
+     * @param validation The fraction of ratings to hold out for validation.
+     * @param schedule The name of the learning-rate schedule.
+     */
+    @Inject
+    public TrainingConfig(@SGDLearningRate double lrate,
+                          @FactorRegularization double reg,
+                          @EpochCount int epochs,
+                          @MinimumEpochs int minEpochs,
+                          @EarlyStoppingPatience int patience,
+                          @ValidationFraction double validation,
+                          @LearningRateSchedule String schedule) {
+        Preconditions.checkArgument(epochs > 0, "epoch count must be positive");
+        Preconditions.checkArgument(patience >= 0, "patience must be non-negative");
+        Preconditions.checkArgument(validation >= 0 && validation < 1,
+                                    "validation fraction must be in [0, 1)");
+        learningRate = lrate;
+        regularization = reg;
+        maxEpochs = epochs;
+        this.minEpochs = minEpochs;
+        this.patience = patience;
+        validationFraction = validation;
+        this.schedule = Schedule.fromName(schedule);
+    }
+
+    /**
+     * Get the configuration the factorizer used before it was configurable: 45 epochs of
+     * constant-rate SGD with no early stopping.  These are also the parameters' defaults.
+     * @return The default training configuration.
+     */
+    public static TrainingConfig defaults() {
+        return new TrainingConfig(0.002, 0.02, 45, 0, 0, 0, "constant");
+    }
+
+    /**
+     * Get a copy of this configuration with a lower epoch cap.
+     * @param epochs The maximum number of epochs.
+     * @return A configuration running at most {@code epochs} epochs (this configuration, if it
+     * already runs no more).
+     */
+    public TrainingConfig withMaxEpochs(int epochs) {
+        if (epochs >= maxEpochs) {
+            return this;
+        }
+        return new TrainingConfig(learningRate, regularization, epochs, Math.min(minEpochs, epochs),
+                                  patience, validationFraction, schedule.name());
+    }
+
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    public double getRegularization() {
+        return regularization;
+    }
+
+    public int getMaxEpochs() {
+        return maxEpochs;
+    }
+
+    public int getMinEpochs() {
+        return minEpochs;
+    }
+
+    public int getPatience() {
+        return patience;
+    }
+
+    public double getValidationFraction() {
+        return validationFraction;
+    }
+
+    public Schedule getSchedule() {
+        return schedule;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TrainingConfig(lrate=%s, reg=%s, epochs=%d-%d, patience=%d, validation=%s, schedule=%s)",
+                             learningRate, regularization, minEpochs, maxEpochs, patience,
+                             validationFraction, schedule);
+    }
+}
@@ -0,0 +1,20 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the number of worker threads used to train the factorization.  A value
+ * of 0 uses one thread per available processor.
+ */
+@Documented
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(1)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface TrainingThreads {
+}
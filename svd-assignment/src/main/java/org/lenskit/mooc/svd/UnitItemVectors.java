@@ -0,0 +1,82 @@
+package org.lenskit.mooc.svd;
+
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.lenskit.util.keys.KeyIndex;
+
+/**
+ * A model's item vectors scaled to unit length, for summing cosine similarities over lists.
+ *
+ * The cosine similarity of two items is the dot product of their unit vectors, so the sum over
+ * all ordered pairs of a list, self-pairs included, is the squared length of the sum of the
+ * list's unit vectors.  That takes one pass over the list instead of one per item.  Unknown
+ * items and items with all-zero vectors have no unit vector, and add nothing to the sum.
+ */
+final class UnitItemVectors {
+    private final KeyIndex items;
+    private final int features;
+    private final double[] rows;
+    private final boolean[] nonzero;
+
+    private UnitItemVectors(KeyIndex items, int features, double[] rows, boolean[] nonzero) {
+        this.items = items;
+        this.features = features;
+        this.rows = rows;
+        this.nonzero = nonzero;
+    }
+
+    /**
+     * Normalize the item vectors of a model.
+     * @param model The model.
+     * @return The unit item vectors.
+     */
+    static UnitItemVectors of(SVDModel model) {
+        KeyIndex items = model.getItemIndexMapping();
+        final int k = model.getFeatureCount();
+        final int n = items.size();
+        double[] rows = new double[n * k];
+        boolean[] nonzero = new boolean[n];
+        FactorKernels kernels = FactorKernels.get();
+        for (int i = 0; i < n; i++) {
+            final int off = i * k;
+            model.getItemFeatures(items.getKey(i), rows, off);
+            double norm = Math.sqrt(kernels.dot(rows, off, rows, off, k));
+            if (norm > 0) {
+                nonzero[i] = true;
+                for (int f = 0; f < k; f++) {
+                    rows[off + f] /= norm;
+                }
+            }
+        }
+        return new UnitItemVectors(items, k, rows, nonzero);
+    }
+
+    int getFeatureCount() {
+        return features;
+    }
+
+    /**
+     * Sum the cosine similarities of the items in a list over all ordered pairs of positions.
+     * @param list The item list.
+     * @param selfPairs Whether to include the pair of each position with itself (which adds 1
+     *                  for each item with a vector).
+     * @return The sum of the cosine similarities.
+     */
+    double cosineSum(LongList list, boolean selfPairs) {
+        final int k = features;
+        double[] sum = new double[k];
+        int count = 0;
+        for (int j = 0, n = list.size(); j < n; j++) {
+            int row = items.tryGetIndex(list.getLong(j));
+            if (row < 0 || !nonzero[row]) {
+                continue;
+            }
+            final int off = row * k;
+            for (int f = 0; f < k; f++) {
+                sum[f] += rows[off + f];
+            }
+            count++;
+        }
+        double total = FactorKernels.get().dot(sum, 0, sum, 0, k);
+        return selfPairs ? total : total - count;
+    }
+}
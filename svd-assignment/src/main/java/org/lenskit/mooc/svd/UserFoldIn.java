@@ -0,0 +1,194 @@
+package org.lenskit.mooc.svd;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.inject.Shareable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.io.Serializable;
+
+/**
+ * Online fold-in of user vectors against the fixed item factors of an {@link SVDModel}, so new
+ * users and new ratings are reflected without retraining.
+ *
+ * A folded-in vector is the regularized least-squares fit of the user's normalized ratings,
+ * exactly the user step of alternating least squares: it solves
+ * {@code (V^T V + lambda I) x = V^T t} over the rated items, where {@code t} is each rating
+ * normalized the way the model builder normalizes training data.  The normal equations are kept
+ * per user, so each further rating is a rank-one update and a k &times; k solve.
+ *
+ * Folded-in users are held in a bounded cache shared by every recommender built from the model.
+ */
+@Shareable
+public class UserFoldIn implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = LoggerFactory.getLogger(UserFoldIn.class);
+
+    private final SVDModel model;
+    private final BiasModel baseline;
+    private final double regularization;
+    private final int capacity;
+    private final transient Cache<Long, FoldedUser> users;
+
+    /**
+     * Construct the fold-in component.
+     * @param model The model whose item factors are fixed.
+     * @param bias The baseline bias model used to normalize ratings.
+     * @param reg The regularization term.
+     * @param capacity The maximum number of folded-in users to keep.
+     */
+    @Inject
+    public UserFoldIn(SVDModel model, BiasModel bias,
+                      @FactorRegularization double reg,
+                      @FoldInCapacity int capacity) {
+        this.model = model;
+        baseline = bias;
+        regularization = reg;
+        this.capacity = capacity;
+        users = CacheBuilder.newBuilder()
+                            .maximumSize(capacity)
+                            .build();
+    }
+
+    /**
+     * Get a user's folded-in vector.
+     * @param user The user ID.
+     * @return The user's weighted feature vector (which must not be modified), or {@code null}
+     * if the user has not been folded in.
+     */
+    @Nullable
+    public double[] getUserVector(long user) {
+        FoldedUser state = users.getIfPresent(user);
+        return state != null ? state.vector : null;
+    }
+
+    /**
+     * Fold a user in from their complete rating history, replacing any earlier fold-in.
+     * @param user The user ID.
+     * @param ratings The user's ratings.  Ratings of items unknown to the model are ignored.
+     * @return The user's weighted feature vector, or {@code null} if none of the rated items
+     * are known to the model.
+     */
+    @Nullable
+    public double[] foldIn(long user, Iterable<? extends Rating> ratings) {
+        FoldedUser state = new FoldedUser(model.getFeatureCount());
+        double[] ivec = new double[model.getFeatureCount()];
+        for (Rating r: ratings) {
+            addToState(state, user, r.getItemId(), r.getValue(), ivec);
+        }
+        if (state.count == 0) {
+            return null;
+        }
+        state.solve(regularization);
+        users.put(user, state);
+        logger.debug("folded in user {} from {} ratings", user, state.count);
+        return state.vector;
+    }
+
+    /**
+     * Update a folded-in user's vector with a new rating.
+     * @param user The user ID.
+     * @param item The rated item.
+     * @param value The rating value.
+     * @return The updated vector, or {@code null} if the user has not been folded in (so there is
+     * nothing to update, and the caller should {@linkplain #foldIn(long, Iterable) fold in} the
+     * user's full history instead).
+     */
+    @Nullable
+    public double[] addRating(long user, long item, double value) {
+        FoldedUser state = users.getIfPresent(user);
+        if (state == null) {
+            return null;
+        }
+        synchronized (state) {
+            if (addToState(state, user, item, value, new double[model.getFeatureCount()])) {
+                state.solve(regularization);
+            }
+            return state.vector;
+        }
+    }
+
+    /**
+     * Forget a user's fold-in.
+     * @param user The user ID.
+     */
+    public void invalidate(long user) {
+        users.invalidate(user);
+    }
+
+    /**
+     * Add a rating to a user's normal equations.
+     * @return {@code true} if the item is known to the model and the rating was added.
+     */
+    private boolean addToState(FoldedUser state, long user, long item, double value, double[] ivec) {
+        int row = model.getItemIndexMapping().tryGetIndex(item);
+        if (row < 0) {
+            return false;
+        }
+        model.getItemFeatures(item, ivec, 0);
+        // normalize as SVDModelBuilder does for training data
+        double target = value;
+        if (target > 0) {
+            target -= baseline.getIntercept() + baseline.getUserBias(user) + baseline.getItemBias(item);
+        }
+        double popWeight = model.getPopularityWeight();
+        target = (1 - popWeight) * target + popWeight * model.getItemPopularityByRow(row);
+        state.add(ivec, target);
+        return true;
+    }
+
+    /**
+     * The cache is not serialized; a deserialized fold-in starts empty.
+     */
+    private Object readResolve() {
+        return new UserFoldIn(model, baseline, regularization, capacity);
+    }
+
+    /**
+     * A user's accumulated normal equations and current solution.
+     */
+    private static final class FoldedUser {
+        private final int k;
+        private final double[] gram;
+        private final double[] rhs;
+        private int count;
+        private volatile double[] vector;
+
+        FoldedUser(int k) {
+            this.k = k;
+            gram = new double[k * k];
+            rhs = new double[k];
+        }
+
+        void add(double[] ivec, double target) {
+            for (int i = 0; i < k; i++) {
+                double vi = ivec[i];
+                rhs[i] += target * vi;
+                for (int j = 0; j <= i; j++) {
+                    gram[i * k + j] += vi * ivec[j];
+                }
+            }
+            count += 1;
+        }
+
+        /**
+         * Solve the regularized normal equations, with the same regularization per rating as
+         * the alternating least squares trainer.
+         */
+        void solve(double reg) {
+            double[] a = gram.clone();
+            double[] x = rhs.clone();
+            double lambda = count * reg / 2;
+            for (int i = 0; i < k; i++) {
+                a[i * k + i] += lambda;
+            }
+            MySingularValueDecomposition.choleskySolve(a, x, k);
+            vector = x;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultDouble;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter controlling the fraction of ratings held out of training to measure validation RMSE
+ * for early stopping.  The held-out ratings are not trained on at all, so this defaults to 0, in
+ * which case the training RMSE is monitored instead.
+ */
+@Documented
+@Qualifier
+@Parameter(Double.class)
+@DefaultDouble(0)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ValidationFraction {
+}
@@ -0,0 +1,20 @@
+package org.lenskit.mooc.svd;
+
+import org.grouplens.grapht.annotation.DefaultInteger;
+import org.lenskit.inject.Parameter;
+
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+
+/**
+ * Parameter capping the number of training epochs when training is warm-started from a
+ * {@linkplain PriorModelFile prior model}.
+ */
+@Documented
+@Qualifier
+@Parameter(Integer.class)
+@DefaultInteger(5)
+@Target({ElementType.PARAMETER, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface WarmStartEpochs {
+}
@@ -0,0 +1,124 @@
+package org.lenskit.mooc.svd;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.util.keys.FrozenHashKeyIndex;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks the linear-time intra-list similarity against the pairwise reference.
+ */
+public class ILSMetricTest {
+    private static final int USERS = 5;
+    private static final int ITEMS = 40;
+    private static final int FEATURES = 6;
+    /**
+     * Items whose feature vectors are all zero.
+     */
+    private static final long[] ZERO_ITEMS = {itemId(3), itemId(17)};
+    private static final long UNKNOWN_ITEM = 5;
+    private static final double EPSILON = 1.0e-9;
+
+    private SVDModel model;
+    private UnitItemVectors vectors;
+
+    private static long itemId(int row) {
+        return 100 + 7 * row;
+    }
+
+    @Before
+    public void createModel() {
+        Random random = new Random(42);
+        LongList users = new LongArrayList();
+        for (int u = 0; u < USERS; u++) {
+            users.add(u + 1);
+        }
+        LongList items = new LongArrayList();
+        double[][] itemFeatures = new double[ITEMS][FEATURES];
+        for (int i = 0; i < ITEMS; i++) {
+            items.add(itemId(i));
+            for (int f = 0; f < FEATURES; f++) {
+                itemFeatures[i][f] = random.nextGaussian();
+            }
+        }
+        for (long item: ZERO_ITEMS) {
+            itemFeatures[(int) (item - 100) / 7] = new double[FEATURES];
+        }
+        double[] weights = new double[FEATURES];
+        for (int f = 0; f < FEATURES; f++) {
+            weights[f] = 1 + f;
+        }
+        model = new SVDModel(FrozenHashKeyIndex.create(users), FrozenHashKeyIndex.create(items),
+                             new Array2DRowRealMatrix(USERS, FEATURES),
+                             new Array2DRowRealMatrix(itemFeatures),
+                             new ArrayRealVector(weights), new double[ITEMS], 0);
+        vectors = UnitItemVectors.of(model);
+    }
+
+    private void assertAgrees(LongList list) {
+        for (boolean selfPairs: new boolean[]{true, false}) {
+            assertThat("selfPairs=" + selfPairs + " " + list,
+                       ILSMetric.intraListSimilarity(vectors, list, selfPairs),
+                       closeTo(ILSMetric.pairwiseIntraListSimilarity(model, list, selfPairs), EPSILON));
+        }
+    }
+
+    @Test
+    public void testEmptyList() {
+        assertAgrees(new LongArrayList());
+        assertThat(ILSMetric.intraListSimilarity(vectors, new LongArrayList(), true),
+                   closeTo(0, EPSILON));
+    }
+
+    @Test
+    public void testSingleItem() {
+        LongList list = LongArrayList.wrap(new long[]{itemId(0)});
+        assertAgrees(list);
+        assertThat(ILSMetric.intraListSimilarity(vectors, list, true), closeTo(0.5, EPSILON));
+        assertThat(ILSMetric.intraListSimilarity(vectors, list, false), closeTo(0, EPSILON));
+    }
+
+    @Test
+    public void testDuplicates() {
+        // every pair of positions holds the same item, so every cosine is 1
+        LongList list = LongArrayList.wrap(new long[]{itemId(1), itemId(1), itemId(1), itemId(1)});
+        assertAgrees(list);
+        assertThat(ILSMetric.intraListSimilarity(vectors, list, true), closeTo(8, EPSILON));
+        assertThat(ILSMetric.intraListSimilarity(vectors, list, false), closeTo(6, EPSILON));
+    }
+
+    @Test
+    public void testUnknownAndZeroItems() {
+        LongList list = LongArrayList.wrap(new long[]{UNKNOWN_ITEM, ZERO_ITEMS[0], ZERO_ITEMS[1],
+                                                      ZERO_ITEMS[0], UNKNOWN_ITEM});
+        assertAgrees(list);
+        assertThat(ILSMetric.intraListSimilarity(vectors, list, true), closeTo(0, EPSILON));
+
+        LongList mixed = LongArrayList.wrap(new long[]{itemId(2), UNKNOWN_ITEM, itemId(9),
+                                                       ZERO_ITEMS[1], itemId(2)});
+        assertAgrees(mixed);
+    }
+
+    @Test
+    public void testRandomLists() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 200; trial++) {
+            int n = random.nextInt(30);
+            LongList list = new LongArrayList(n);
+            for (int j = 0; j < n; j++) {
+                // draw with replacement, with a few IDs outside the model
+                int row = random.nextInt(ITEMS + 3);
+                list.add(row < ITEMS ? itemId(row) : UNKNOWN_ITEM + row);
+            }
+            assertAgrees(list);
+        }
+    }
+}